@@ -0,0 +1,59 @@
+package com.kryo.serializer.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once per thread count with the GC profiler, which reports allocated
+ * bytes per operation (gc.alloc.rate.norm) next to the GC counts, and writes one JSON
+ * result file per thread count. Usual JMH options are accepted, e.g. a benchmark regexp
+ * or -p size=1024.
+ * <p>
+ * System properties : benchmark.threads, thread counts separated by commas (default 1, 2, 4...
+ * up to the available processors), benchmark.results, directory of the result files
+ * (default jmh-results).
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		File results = new File(System.getProperty("benchmark.results", "jmh-results"));
+		if (!results.isDirectory() && !results.mkdirs()) {
+			throw new IllegalStateException("Can't create " + results);
+		}
+		for (int threads : threads(System.getProperty("benchmark.threads"))) {
+			new Runner(new OptionsBuilder()
+					.parent(commandLine)
+					.threads(threads)
+					.addProfiler(GCProfiler.class)
+					.resultFormat(ResultFormatType.JSON)
+					.result(new File(results, "jmh-t" + threads + ".json").getPath())
+					.build()).run();
+		}
+	}
+
+	static List<Integer> threads(String property) {
+		List<Integer> threads = new ArrayList<Integer>();
+		if (property != null && property.trim().length() > 0) {
+			for (String count : property.split(",")) {
+				threads.add(Integer.valueOf(count.trim()));
+			}
+			return threads;
+		}
+		int max = Runtime.getRuntime().availableProcessors();
+		for (int count = 1; count < max; count *= 2) {
+			threads.add(count);
+		}
+		threads.add(max);
+		return threads;
+	}
+}
@@ -0,0 +1,105 @@
+package com.kryo.serializer.benchmark;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kryo.serializer.server.EmbeddedMemcached;
+import com.kryo.serializer.spymemcache.SpyMemcached;
+import com.kryo.serializer.spymemcache.SpyMemcachedConfig;
+
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+
+/**
+ * Throughput and latency distribution of SpyMemcached get, bulk get and put against the
+ * embedded server, so the whole client stack is measured without an external memcached.
+ * Run with -Dbenchmark.threads=16 for the text against binary protocol under concurrent callers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientBenchmark {
+
+	private static final String KEY = "benchmark";
+	private static final String[] KEYS = { "benchmark0", "benchmark1", "benchmark2", "benchmark3", "benchmark4", "benchmark5", "benchmark6", "benchmark7" };
+
+	@Param({ "TEXT", "BINARY" })
+	public Protocol protocol;
+
+	@Param({ "java", "kryo" })
+	public String serialization;
+
+	@Param({ "1024", "65536" })
+	public int size;
+
+	@Param({ "0" })
+	public int latencyMillis;
+
+	private EmbeddedMemcached server;
+	private Client client;
+	private Object value;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, InterruptedException {
+		server = new EmbeddedMemcached().start().setLatency(latencyMillis, TimeUnit.MILLISECONDS);
+		client = new Client(server.getAddress(), "kryo".equals(serialization), new SpyMemcachedConfig().setProtocol(protocol));
+		value = Payloads.bean(size);
+		// operations issued before the connection is up are cancelled
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!client.put(value, KEY, 0) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		for (String key : KEYS) {
+			client.put(value, key, 0);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		client.shutdown();
+		server.close();
+	}
+
+	@Benchmark
+	public Object get() {
+		return client.get(KEY);
+	}
+
+	@Benchmark
+	public Map<String, Object> getBulk() {
+		return client.get(KEYS);
+	}
+
+	@Benchmark
+	public boolean put() {
+		return client.put(value, KEY, 0);
+	}
+
+	private static final class Client extends SpyMemcached {
+
+		Client(String address, boolean kryoEnabled, SpyMemcachedConfig config) {
+			super(address, kryoEnabled, config);
+		}
+
+		void shutdown() {
+			destroy();
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.kryo.serializer.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kryo.serializer.compress.CompressionCodec;
+import com.kryo.serializer.compress.GzipCodec;
+import com.kryo.serializer.compress.Lz4Codec;
+import com.kryo.serializer.compress.SnappyCodec;
+import com.kryo.serializer.compress.SnappyRawCodec;
+import com.kryo.serializer.compress.ZstdCodec;
+import com.kryo.serializer.spymemcache.OptimizeTranscoder;
+
+import net.spy.memcached.CachedData;
+
+/**
+ * OptimizeTranscoder encode and decode of variable size values, for each serialization and
+ * compression mode. Codecs compress from the first byte so small sizes measure them too;
+ * "none" never compresses. The transcoder is shared by the benchmark threads, as in a client.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadBenchmark {
+
+	@Param({ "string", "stringbuilder", "bytearray", "bean" })
+	public String shape;
+
+	@Param({ "java", "kryo" })
+	public String serialization;
+
+	@Param({ "none", "gzip", "snappy", "snappy_raw", "lz4", "zstd" })
+	public String compression;
+
+	@Param({ "50", "1024", "16384", "262144", "1048576" })
+	public int size;
+
+	private OptimizeTranscoder transcoder;
+	private Object value;
+	private CachedData encoded;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		transcoder = new OptimizeTranscoder();
+		transcoder.setKryoEnabled("kryo".equals(serialization));
+		transcoder.setCompressionCodec(codec(compression));
+		transcoder.setMaxSize(Integer.MAX_VALUE);
+		value = Payloads.of(shape, size);
+		encoded = transcoder.encode(value);
+	}
+
+	@Benchmark
+	public CachedData encode() {
+		return transcoder.encode(value);
+	}
+
+	@Benchmark
+	public Object decode() {
+		return transcoder.decode(encoded);
+	}
+
+	static CompressionCodec codec(String compression) {
+		switch (compression) {
+		case "none":
+			return new SnappyRawCodec(Integer.MAX_VALUE);
+		case "gzip":
+			return new GzipCodec(0, Deflater.DEFAULT_COMPRESSION);
+		case "snappy":
+			return new SnappyCodec(0);
+		case "snappy_raw":
+			return new SnappyRawCodec(0);
+		case "lz4":
+			return new Lz4Codec(0);
+		case "zstd":
+			return new ZstdCodec(0, ZstdCodec.DEFAULT_LEVEL);
+		default:
+			throw new IllegalArgumentException("Unknown compression " + compression);
+		}
+	}
+}
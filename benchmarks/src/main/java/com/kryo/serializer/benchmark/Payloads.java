@@ -0,0 +1,91 @@
+package com.kryo.serializer.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Random;
+
+import com.kryo.serializer.bean.BeanSerializable;
+
+/**
+ * Benchmark values of a shape and an approximate encoded size. Text is built from a fixed
+ * vocabulary with a fixed seed, so it compresses like real values and runs are comparable.
+ */
+final class Payloads {
+
+	private static final String[] WORDS = { "memcached", "kryo", "value", "user", "session", "cart", "item", "price",
+			"2014-02-11", "true", "false", "null", "id", "name", "David", "status", "OK", "42", "3.14", "{", "}", "\"" };
+
+	/** bytes taken by one myList entry in a Kryo bean */
+	private static final int BEAN_ENTRY_SIZE = 10;
+
+	private Payloads() {
+	}
+
+	static Object of(String shape, int size) {
+		switch (shape) {
+		case "string":
+			return text(size);
+		case "stringbuilder":
+			return new StringBuilder(text(size));
+		case "bytearray":
+			return text(size).getBytes(StandardCharsets.UTF_8);
+		case "bean":
+			return bean(size);
+		default:
+			throw new IllegalArgumentException("Unknown payload shape " + shape);
+		}
+	}
+
+	static Object scalar(String type) {
+		switch (type) {
+		case "int":
+			return 42;
+		case "long":
+			return 1392116197393L;
+		case "short":
+			return (short) 42;
+		case "byte":
+			return (byte) 1;
+		case "boolean":
+			return Boolean.TRUE;
+		case "character":
+			return 'C';
+		case "float":
+			return 2f;
+		case "double":
+			return 123d;
+		case "date":
+			return new Date(1392116197393L);
+		default:
+			throw new IllegalArgumentException("Unknown scalar type " + type);
+		}
+	}
+
+	static String text(int size) {
+		Random random = new Random(size);
+		StringBuilder sb = new StringBuilder(size + 16);
+		while (sb.length() < size) {
+			sb.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+		}
+		sb.setLength(size);
+		return sb.toString();
+	}
+
+	static BeanSerializable bean(int size) {
+		BeanSerializable bs = new BeanSerializable();
+		bs.setMyInteger(42);
+		bs.setMyBoolean(true);
+		bs.setMyByte((byte) 1);
+		bs.setMyChar('C');
+		bs.setMyDate(new Date(1392116197393L));
+		bs.setMyDouble(123);
+		bs.setMyFloat(2);
+		ArrayList<String> list = new ArrayList<String>();
+		for (int i = 0; i < size / BEAN_ENTRY_SIZE; i++) {
+			list.add("David" + i);
+		}
+		bs.setMyList(list);
+		return bs;
+	}
+}
@@ -0,0 +1,57 @@
+package com.kryo.serializer.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kryo.serializer.spymemcache.OptimizeTranscoder;
+
+import net.spy.memcached.CachedData;
+
+/**
+ * OptimizeTranscoder encode and decode of the fixed size types, never serialized nor compressed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScalarBenchmark {
+
+	@Param({ "int", "long", "short", "byte", "boolean", "character", "float", "double", "date" })
+	public String type;
+
+	private OptimizeTranscoder transcoder;
+	private Object value;
+	private CachedData encoded;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		transcoder = new OptimizeTranscoder();
+		transcoder.setKryoEnabled(true);
+		value = Payloads.scalar(type);
+		encoded = transcoder.encode(value);
+	}
+
+	@Benchmark
+	public CachedData encode() {
+		return transcoder.encode(value);
+	}
+
+	@Benchmark
+	public Object decode() {
+		return transcoder.decode(encoded);
+	}
+}
@@ -0,0 +1,106 @@
+package com.kryo.serializer.compress;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import com.kryo.serializer.util.Pool;
+
+/**
+ * Base for one-shot block codecs: compress into a pooled scratch
+ * array sized to the codec bound, then copy out only the exact compressed length.
+ */
+public abstract class BlockCodec implements CompressionCodec {
+
+	static final Logger LOGGER = LogManager.getLogger(BlockCodec.class);
+
+	static final int BUFFER_SIZE = 8192;
+	static final int BUFFER_MAX_RETAINED = 256 * 1024;
+
+	private static final Pool<byte[]> buffers = new Pool<byte[]>(Runtime.getRuntime().availableProcessors() * 4) {
+		@Override
+		protected byte[] create() {
+			return new byte[BUFFER_SIZE];
+		}
+
+		@Override
+		protected boolean reset(byte[] buffer) {
+			return buffer.length <= BUFFER_MAX_RETAINED;
+		}
+	};
+
+	private final int threshold;
+
+	protected BlockCodec(int threshold) {
+		this.threshold = threshold;
+	}
+
+	@Override
+	public int getThreshold() {
+		return threshold;
+	}
+
+	@Override
+	public byte[] compress(byte[] in, int length) {
+		int maxLength = maxCompressedLength(length);
+		byte[] dest = buffers.borrow();
+		if (dest.length < maxLength) {
+			buffers.release(dest);
+			dest = new byte[maxLength];
+		}
+		try {
+			int compressedLength = compress(in, length, dest);
+			if (compressedLength < 0) {
+				return null;
+			}
+			return Arrays.copyOf(dest, compressedLength);
+		} catch (Exception e) {
+			LOGGER.warn(String.format("%s compression failed", getClass().getSimpleName()), e);
+			return null;
+		} finally {
+			buffers.release(dest);
+		}
+	}
+
+	@Override
+	public byte[] decompress(byte[] in) {
+		return decompress(in, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public byte[] decompress(byte[] in, int maxLength) {
+		if (in == null) {
+			return null;
+		}
+		try {
+			return decompressBlock(in, maxLength);
+		} catch (Exception e) {
+			LOGGER.error(String.format("%s decompression failed", getClass().getSimpleName()), e);
+			return null;
+		}
+	}
+
+	/**
+	 * Upper bound of the compressed size of length bytes.
+	 */
+	protected abstract int maxCompressedLength(int length);
+
+	/**
+	 * Compress the first length bytes of in into out, returns the compressed length.
+	 */
+	protected abstract int compress(byte[] in, int length, byte[] out) throws IOException;
+
+	/**
+	 * Decompress in, failing before the allocation when the stored length is above maxLength.
+	 */
+	protected abstract byte[] decompressBlock(byte[] in, int maxLength) throws IOException;
+
+	static int checkLength(long length, int maxLength) throws IOException {
+		if (length > maxLength) {
+			throw new IOException(String.format("Decompressed length %d above %d", length, maxLength));
+		}
+		return (int) length;
+	}
+}
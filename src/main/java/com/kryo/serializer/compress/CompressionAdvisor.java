@@ -0,0 +1,171 @@
+package com.kryo.serializer.compress;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Learns per value type and size bucket (power of 2) whether compression pays off.
+ * After a window of windowSize attempts whose compressed size stays above maxRatio of
+ * the raw size, the bucket is skipped; one value in probeInterval is still compressed
+ * so the decision gets re-evaluated when the payloads change.
+ */
+public class CompressionAdvisor {
+
+	public static final int DEFAULT_WINDOW_SIZE = 16;
+	public static final double DEFAULT_MAX_RATIO = 0.9;
+	public static final int DEFAULT_PROBE_INTERVAL = 256;
+
+	private static final int BUCKETS = Integer.SIZE + 1;
+
+	private final int windowSize;
+	private final double maxRatio;
+	private final int probeInterval;
+
+	private final ConcurrentMap<Class<?>, Bucket[]> buckets = new ConcurrentHashMap<Class<?>, Bucket[]>();
+
+	public CompressionAdvisor() {
+		this(DEFAULT_WINDOW_SIZE, DEFAULT_MAX_RATIO, DEFAULT_PROBE_INTERVAL);
+	}
+
+	public CompressionAdvisor(int windowSize, double maxRatio, int probeInterval) {
+		this.windowSize = windowSize;
+		this.maxRatio = maxRatio;
+		this.probeInterval = probeInterval;
+	}
+
+	public boolean shouldCompress(Class<?> type, int length) {
+		Bucket bucket = bucket(type, length);
+		if (!bucket.skip) {
+			return true;
+		}
+		return bucket.skipped.incrementAndGet() % probeInterval == 0;
+	}
+
+	/**
+	 * Record a compression attempt, compressedLength is the raw length when compression failed or didn't help.
+	 */
+	public void record(Class<?> type, int length, int compressedLength, long nanos) {
+		Bucket bucket = bucket(type, length);
+		bucket.attempts.incrementAndGet();
+		bucket.rawBytes.addAndGet(length);
+		bucket.compressedBytes.addAndGet(compressedLength);
+		bucket.nanos.addAndGet(nanos);
+		bucket.windowRawBytes.addAndGet(length);
+		bucket.windowCompressedBytes.addAndGet(compressedLength);
+		if (bucket.window.incrementAndGet() >= windowSize) {
+			synchronized (bucket) {
+				if (bucket.window.get() >= windowSize) {
+					bucket.skip = bucket.windowCompressedBytes.get() > bucket.windowRawBytes.get() * maxRatio;
+					bucket.window.set(0);
+					bucket.windowRawBytes.set(0);
+					bucket.windowCompressedBytes.set(0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Learned decisions, keyed by "class [min-max bytes]".
+	 */
+	public Map<String, Stats> getStats() {
+		Map<String, Stats> stats = new TreeMap<String, Stats>();
+		for (Map.Entry<Class<?>, Bucket[]> entry : buckets.entrySet()) {
+			Bucket[] typeBuckets = entry.getValue();
+			for (int i = 0; i < typeBuckets.length; i++) {
+				Bucket bucket = typeBuckets[i];
+				if (bucket != null && bucket.attempts.get() > 0) {
+					long min = i == 0 ? 0 : 1L << (i - 1);
+					long max = (1L << i) - 1;
+					stats.put(String.format("%s [%d-%d]", entry.getKey().getName(), min, max), new Stats(bucket));
+				}
+			}
+		}
+		return stats;
+	}
+
+	public void reset() {
+		buckets.clear();
+	}
+
+	private Bucket bucket(Class<?> type, int length) {
+		Bucket[] typeBuckets = buckets.get(type);
+		if (typeBuckets == null) {
+			Bucket[] created = new Bucket[BUCKETS];
+			typeBuckets = buckets.putIfAbsent(type, created);
+			if (typeBuckets == null) {
+				typeBuckets = created;
+			}
+		}
+		int index = Integer.SIZE - Integer.numberOfLeadingZeros(length);
+		Bucket bucket = typeBuckets[index];
+		if (bucket == null) {
+			synchronized (typeBuckets) {
+				bucket = typeBuckets[index];
+				if (bucket == null) {
+					bucket = typeBuckets[index] = new Bucket();
+				}
+			}
+		}
+		return bucket;
+	}
+
+	private static final class Bucket {
+		volatile boolean skip;
+		final AtomicLong attempts = new AtomicLong();
+		final AtomicLong skipped = new AtomicLong();
+		final AtomicLong rawBytes = new AtomicLong();
+		final AtomicLong compressedBytes = new AtomicLong();
+		final AtomicLong nanos = new AtomicLong();
+		final AtomicInteger window = new AtomicInteger();
+		final AtomicLong windowRawBytes = new AtomicLong();
+		final AtomicLong windowCompressedBytes = new AtomicLong();
+	}
+
+	public static final class Stats {
+		private final boolean compressing;
+		private final long attempts;
+		private final long skipped;
+		private final double ratio;
+		private final long averageNanos;
+
+		Stats(Bucket bucket) {
+			this.compressing = !bucket.skip;
+			this.attempts = bucket.attempts.get();
+			this.skipped = bucket.skipped.get();
+			this.ratio = bucket.rawBytes.get() == 0 ? 1 : (double) bucket.compressedBytes.get() / bucket.rawBytes.get();
+			this.averageNanos = attempts == 0 ? 0 : bucket.nanos.get() / attempts;
+		}
+
+		public boolean isCompressing() {
+			return compressing;
+		}
+
+		public long getAttempts() {
+			return attempts;
+		}
+
+		/**
+		 * Compression passes saved since the bucket was first skipped.
+		 */
+		public long getSkipped() {
+			return skipped;
+		}
+
+		public double getRatio() {
+			return ratio;
+		}
+
+		public long getAverageNanos() {
+			return averageNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("compressing=%b attempts=%d skipped=%d ratio=%.3f avgNanos=%d", compressing, attempts, skipped, ratio, averageNanos);
+		}
+	}
+}
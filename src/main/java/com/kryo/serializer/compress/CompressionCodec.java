@@ -0,0 +1,37 @@
+package com.kryo.serializer.compress;
+
+/**
+ * Compression step of OptimizeTranscoder. Each codec owns one flag bit stored
+ * with the value, so decode can dispatch on the flags and mixed-codec data keeps working.
+ */
+public interface CompressionCodec {
+
+	/**
+	 * Single flag bit marking values compressed by this codec.
+	 */
+	int getFlag();
+
+	/**
+	 * Values longer than this many bytes are compressed.
+	 */
+	int getThreshold();
+
+	/**
+	 * Compress the first length bytes of in, null when compression failed or isn't possible yet.
+	 */
+	byte[] compress(byte[] in, int length);
+
+	/**
+	 * Decompress a value written by compress, null on failure.
+	 */
+	byte[] decompress(byte[] in);
+
+	/**
+	 * Decompress like decompress(in), null when the value is longer than maxLength. Codecs
+	 * storing the length check it before allocating.
+	 */
+	default byte[] decompress(byte[] in, int maxLength) {
+		byte[] out = decompress(in);
+		return out == null || out.length > maxLength ? null : out;
+	}
+}
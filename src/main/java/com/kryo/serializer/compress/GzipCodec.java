@@ -0,0 +1,110 @@
+package com.kryo.serializer.compress;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+/**
+ * GZIP stream format, default for Java serialized values.
+ */
+public class GzipCodec implements CompressionCodec {
+
+	static final Logger LOGGER = LogManager.getLogger(GzipCodec.class);
+
+	public static final int FLAG = 2;
+	public static final int DEFAULT_THRESHOLD = 30720;
+
+	private final int threshold;
+	private final int level;
+
+	public GzipCodec() {
+		this(DEFAULT_THRESHOLD, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	public GzipCodec(int threshold, int level) {
+		this.threshold = threshold;
+		this.level = level;
+	}
+
+	@Override
+	public int getFlag() {
+		return FLAG;
+	}
+
+	@Override
+	public int getThreshold() {
+		return threshold;
+	}
+
+	@Override
+	public byte[] compress(byte[] in, int length) {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = null;
+		try {
+			gzip = new GZIPOutputStream(baos) {
+				{
+					def.setLevel(level);
+				}
+			};
+			gzip.write(in, 0, length);
+		} catch (IOException e) {
+			LOGGER.warn("GZIP compression failed", e);
+			return null;
+		} finally {
+			if (gzip != null) {
+				try {
+					gzip.close();
+				} catch (IOException e) {
+					LOGGER.info("GZIP compression error : close GZIPOutputStream", e);
+				}
+			}
+			try {
+				baos.close();
+			} catch (IOException e) {
+				LOGGER.info("GZIP compression error : close ByteArrayOutputStream", e);
+			}
+		}
+		return baos.toByteArray();
+	}
+
+	@Override
+	public byte[] decompress(byte[] in) {
+		ByteArrayOutputStream baos = null;
+		if (in != null) {
+			ByteArrayInputStream bais = new ByteArrayInputStream(in);
+			baos = new ByteArrayOutputStream();
+			GZIPInputStream gzip = null;
+			try {
+				gzip = new GZIPInputStream(bais);
+				byte[] buf = new byte[16 * 1024];
+				int r = -1;
+				while ((r = gzip.read(buf)) > 0) {
+					baos.write(buf, 0, r);
+				}
+			} catch (IOException e) {
+				LOGGER.error("GZIP decompression failed", e);
+				baos = null;
+			} finally {
+				if (gzip != null) {
+					try {
+						gzip.close();
+					} catch (IOException e) {
+						LOGGER.info("GZIP compression error : close GZIPInputStream", e);
+					}
+				}
+				try {
+					bais.close();
+				} catch (IOException e) {
+					LOGGER.info("GZIP compression error : close ByteArrayInputStream", e);
+				}
+			}
+		}
+		return baos == null ? null : baos.toByteArray();
+	}
+}
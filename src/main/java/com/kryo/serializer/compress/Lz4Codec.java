@@ -0,0 +1,68 @@
+package com.kryo.serializer.compress;
+
+import java.io.IOException;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+/**
+ * LZ4 block format prefixed with the 4 bytes big-endian uncompressed length.
+ * Fast compressor by default, high compressor when a level is given.
+ */
+public class Lz4Codec extends BlockCodec {
+
+	public static final int FLAG = 262144;
+	public static final int DEFAULT_THRESHOLD = 1024;
+
+	private static final int HEADER_SIZE = 4;
+
+	private final LZ4Compressor compressor;
+	private final LZ4SafeDecompressor decompressor;
+
+	public Lz4Codec() {
+		this(DEFAULT_THRESHOLD);
+	}
+
+	public Lz4Codec(int threshold) {
+		super(threshold);
+		this.compressor = LZ4Factory.fastestInstance().fastCompressor();
+		this.decompressor = LZ4Factory.fastestInstance().safeDecompressor();
+	}
+
+	public Lz4Codec(int threshold, int level) {
+		super(threshold);
+		this.compressor = LZ4Factory.fastestInstance().highCompressor(level);
+		this.decompressor = LZ4Factory.fastestInstance().safeDecompressor();
+	}
+
+	@Override
+	public int getFlag() {
+		return FLAG;
+	}
+
+	@Override
+	protected int maxCompressedLength(int length) {
+		return HEADER_SIZE + compressor.maxCompressedLength(length);
+	}
+
+	@Override
+	protected int compress(byte[] in, int length, byte[] out) {
+		out[0] = (byte) (length >>> 24);
+		out[1] = (byte) (length >>> 16);
+		out[2] = (byte) (length >>> 8);
+		out[3] = (byte) length;
+		return HEADER_SIZE + compressor.compress(in, 0, length, out, HEADER_SIZE, out.length - HEADER_SIZE);
+	}
+
+	@Override
+	protected byte[] decompressBlock(byte[] in, int maxLength) throws IOException {
+		int length = ((in[0] & 0xff) << 24) | ((in[1] & 0xff) << 16) | ((in[2] & 0xff) << 8) | (in[3] & 0xff);
+		if (length < 0) {
+			throw new IOException(String.format("Negative LZ4 length %d", length));
+		}
+		byte[] out = new byte[checkLength(length, maxLength)];
+		decompressor.decompress(in, HEADER_SIZE, in.length - HEADER_SIZE, out, 0, length);
+		return out;
+	}
+}
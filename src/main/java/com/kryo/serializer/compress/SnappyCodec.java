@@ -0,0 +1,103 @@
+package com.kryo.serializer.compress;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.xerial.snappy.SnappyInputStream;
+import org.xerial.snappy.SnappyOutputStream;
+
+/**
+ * Framed SnappyOutputStream format, kept so values written before SnappyRawCodec still decode.
+ */
+public class SnappyCodec implements CompressionCodec {
+
+	static final Logger LOGGER = LogManager.getLogger(SnappyCodec.class);
+
+	public static final int FLAG = 65536;
+	public static final int DEFAULT_THRESHOLD = 1024;
+
+	private final int threshold;
+
+	public SnappyCodec() {
+		this(DEFAULT_THRESHOLD);
+	}
+
+	public SnappyCodec(int threshold) {
+		this.threshold = threshold;
+	}
+
+	@Override
+	public int getFlag() {
+		return FLAG;
+	}
+
+	@Override
+	public int getThreshold() {
+		return threshold;
+	}
+
+	@Override
+	public byte[] compress(byte[] in, int length) {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(length);
+		SnappyOutputStream snappy = null;
+		try {
+			snappy = new SnappyOutputStream(baos);
+			snappy.write(in, 0, length);
+		} catch (IOException e) {
+			LOGGER.warn("SNAPPY compression failed", e);
+			return null;
+		} finally {
+			if (snappy != null) {
+				try {
+					snappy.close();
+				} catch (IOException e) {
+					LOGGER.info("SNAPPY compression error : close SnappyOutputStream", e);
+				}
+			}
+			try {
+				baos.close();
+			} catch (IOException e) {
+				LOGGER.info("SNAPPY compression error : close ByteArrayOutputStream", e);
+			}
+		}
+		return baos.toByteArray();
+	}
+
+	@Override
+	public byte[] decompress(byte[] in) {
+		ByteArrayOutputStream baos = null;
+		if (in != null) {
+			ByteArrayInputStream bais = new ByteArrayInputStream(in);
+			baos = new ByteArrayOutputStream();
+			SnappyInputStream snappy = null;
+			try {
+				snappy = new SnappyInputStream(bais);
+				byte[] buf = new byte[16 * 1024];
+				int r = -1;
+				while ((r = snappy.read(buf)) > 0) {
+					baos.write(buf, 0, r);
+				}
+			} catch (IOException e) {
+				LOGGER.error("SNAPPY decompression failed", e);
+				baos = null;
+			} finally {
+				if (snappy != null) {
+					try {
+						snappy.close();
+					} catch (IOException e) {
+						LOGGER.info("SNAPPY compression error : close SnappyInputStream", e);
+					}
+				}
+				try {
+					bais.close();
+				} catch (IOException e) {
+					LOGGER.info("SNAPPY compression error : close ByteArrayInputStream", e);
+				}
+			}
+		}
+		return baos == null ? null : baos.toByteArray();
+	}
+}
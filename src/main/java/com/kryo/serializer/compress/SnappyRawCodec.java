@@ -0,0 +1,44 @@
+package com.kryo.serializer.compress;
+
+import java.io.IOException;
+
+import org.xerial.snappy.Snappy;
+
+/**
+ * Snappy one-shot block format, no stream framing.
+ */
+public class SnappyRawCodec extends BlockCodec {
+
+	public static final int FLAG = 131072;
+	public static final int DEFAULT_THRESHOLD = 1024;
+
+	public SnappyRawCodec() {
+		this(DEFAULT_THRESHOLD);
+	}
+
+	public SnappyRawCodec(int threshold) {
+		super(threshold);
+	}
+
+	@Override
+	public int getFlag() {
+		return FLAG;
+	}
+
+	@Override
+	protected int maxCompressedLength(int length) {
+		return Snappy.maxCompressedLength(length);
+	}
+
+	@Override
+	protected int compress(byte[] in, int length, byte[] out) throws IOException {
+		return Snappy.compress(in, 0, length, out, 0);
+	}
+
+	@Override
+	protected byte[] decompressBlock(byte[] in, int maxLength) throws IOException {
+		byte[] out = new byte[checkLength(Snappy.uncompressedLength(in), maxLength)];
+		Snappy.uncompress(in, 0, in.length, out, 0);
+		return out;
+	}
+}
@@ -0,0 +1,59 @@
+package com.kryo.serializer.compress;
+
+import java.io.IOException;
+
+import com.github.luben.zstd.Zstd;
+
+/**
+ * Zstandard frames, denser than Snappy and LZ4 at a higher CPU cost.
+ */
+public class ZstdCodec extends BlockCodec {
+
+	public static final int FLAG = 524288;
+	public static final int DEFAULT_THRESHOLD = 1024;
+	public static final int DEFAULT_LEVEL = 3;
+
+	private final int level;
+
+	public ZstdCodec() {
+		this(DEFAULT_THRESHOLD, DEFAULT_LEVEL);
+	}
+
+	public ZstdCodec(int threshold, int level) {
+		super(threshold);
+		this.level = level;
+	}
+
+	@Override
+	public int getFlag() {
+		return FLAG;
+	}
+
+	@Override
+	protected int maxCompressedLength(int length) {
+		return (int) Zstd.compressBound(length);
+	}
+
+	@Override
+	protected int compress(byte[] in, int length, byte[] out) throws IOException {
+		long size = Zstd.compressByteArray(out, 0, out.length, in, 0, length, level);
+		if (Zstd.isError(size)) {
+			throw new IOException(Zstd.getErrorName(size));
+		}
+		return (int) size;
+	}
+
+	@Override
+	protected byte[] decompressBlock(byte[] in, int maxLength) throws IOException {
+		long length = Zstd.getFrameContentSize(in);
+		if (length < 0) {
+			throw new IOException("ZSTD frame without content size");
+		}
+		byte[] out = new byte[checkLength(length, maxLength)];
+		long size = Zstd.decompressByteArray(out, 0, out.length, in, 0, in.length);
+		if (Zstd.isError(size)) {
+			throw new IOException(Zstd.getErrorName(size));
+		}
+		return out;
+	}
+}
@@ -0,0 +1,195 @@
+package com.kryo.serializer.compress;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+
+/**
+ * Zstandard with a dictionary trained from sampled payloads, for values too small
+ * to compress on their own. Values are prefixed with the 4 bytes big-endian dictionary id.
+ *
+ * Until a dictionary is trained or loaded, compress samples 1 payload in sampleRate and
+ * returns null. Every dictionary ever used stays loaded for decode; other nodes reading the
+ * same pool must load the dictionaries (getDictionary / loadDictionary) or they see misses.
+ */
+public class ZstdDictionaryCodec extends BlockCodec {
+
+	static final Logger LOGGER = LogManager.getLogger(ZstdDictionaryCodec.class);
+
+	public static final int FLAG = 1048576;
+	public static final int DEFAULT_THRESHOLD = 64;
+	public static final int DEFAULT_LEVEL = 3;
+	public static final int DEFAULT_DICTIONARY_SIZE = 16 * 1024;
+	public static final int DEFAULT_SAMPLE_SIZE = 1024 * 1024;
+	public static final int DEFAULT_SAMPLE_RATE = 16;
+
+	private static final int HEADER_SIZE = 4;
+
+	private final int level;
+	private final int dictionarySize;
+	private final int sampleSize;
+	private final int sampleRate;
+
+	private final ConcurrentHashMap<Integer, ZstdDictDecompress> decompressDictionaries = new ConcurrentHashMap<Integer, ZstdDictDecompress>();
+	private final ConcurrentHashMap<Integer, byte[]> dictionaries = new ConcurrentHashMap<Integer, byte[]>();
+	private volatile Dictionary current;
+
+	private volatile ZstdDictTrainer trainer;
+	private final AtomicInteger sampleCounter = new AtomicInteger();
+	private final AtomicBoolean training = new AtomicBoolean();
+
+	public ZstdDictionaryCodec() {
+		this(DEFAULT_THRESHOLD, DEFAULT_LEVEL, DEFAULT_DICTIONARY_SIZE, DEFAULT_SAMPLE_SIZE, DEFAULT_SAMPLE_RATE);
+	}
+
+	public ZstdDictionaryCodec(int threshold, int level, int dictionarySize, int sampleSize, int sampleRate) {
+		super(threshold);
+		this.level = level;
+		this.dictionarySize = dictionarySize;
+		this.sampleSize = sampleSize;
+		this.sampleRate = sampleRate;
+		this.trainer = new ZstdDictTrainer(sampleSize, dictionarySize);
+	}
+
+	@Override
+	public int getFlag() {
+		return FLAG;
+	}
+
+	/**
+	 * Load a dictionary produced by this codec, possibly on another node, and compress with it from now on.
+	 * Previously loaded dictionaries stay available for decode.
+	 */
+	public void loadDictionary(byte[] dictionary) {
+		int id = (int) Zstd.getDictIdFromDict(dictionary);
+		if (id == 0) {
+			throw new IllegalArgumentException("Not a ZSTD dictionary");
+		}
+		byte[] previous = dictionaries.putIfAbsent(id, dictionary);
+		if (previous != null && !Arrays.equals(previous, dictionary)) {
+			throw new IllegalArgumentException(String.format("ZSTD dictionary id %d already used by another dictionary", id));
+		}
+		decompressDictionaries.putIfAbsent(id, new ZstdDictDecompress(dictionary));
+		current = new Dictionary(id, new ZstdDictCompress(dictionary, level));
+		trainer = null;
+		LOGGER.info(String.format("ZSTD dictionary %d loaded (%d bytes)", id, dictionary.length));
+	}
+
+	/**
+	 * Dictionary currently used to compress, null while still sampling.
+	 */
+	public byte[] getDictionary() {
+		Dictionary dictionary = current;
+		return dictionary == null ? null : dictionaries.get(dictionary.id);
+	}
+
+	public byte[] getDictionary(int id) {
+		return dictionaries.get(id);
+	}
+
+	public Set<Integer> getDictionaryIds() {
+		return dictionaries.keySet();
+	}
+
+	/**
+	 * Start sampling for a new dictionary, the current one is used until the new one is trained.
+	 */
+	public void retrain() {
+		if (!training.get()) {
+			trainer = new ZstdDictTrainer(sampleSize, dictionarySize);
+		}
+	}
+
+	@Override
+	public byte[] compress(byte[] in, int length) {
+		ZstdDictTrainer sampling = trainer;
+		if (sampling != null && sampleCounter.incrementAndGet() % sampleRate == 0) {
+			sample(sampling, Arrays.copyOf(in, length));
+		}
+		if (current == null) {
+			return null;
+		}
+		return super.compress(in, length);
+	}
+
+	private void sample(final ZstdDictTrainer sampling, byte[] payload) {
+		if (sampling.addSample(payload) || !training.compareAndSet(false, true)) {
+			return;
+		}
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					loadDictionary(sampling.trainSamples());
+				} catch (Exception e) {
+					LOGGER.warn("ZSTD dictionary training failed, sampling again", e);
+					trainer = new ZstdDictTrainer(sampleSize, dictionarySize);
+				} finally {
+					training.set(false);
+				}
+			}
+		}, "zstd-dictionary-trainer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	protected int maxCompressedLength(int length) {
+		return HEADER_SIZE + (int) Zstd.compressBound(length);
+	}
+
+	@Override
+	protected int compress(byte[] in, int length, byte[] out) throws IOException {
+		Dictionary dictionary = current;
+		int id = dictionary.id;
+		out[0] = (byte) (id >>> 24);
+		out[1] = (byte) (id >>> 16);
+		out[2] = (byte) (id >>> 8);
+		out[3] = (byte) id;
+		long size = Zstd.compressFastDict(out, HEADER_SIZE, in, 0, length, dictionary.compress);
+		if (Zstd.isError(size)) {
+			throw new IOException(Zstd.getErrorName(size));
+		}
+		return HEADER_SIZE + (int) size;
+	}
+
+	@Override
+	protected byte[] decompressBlock(byte[] in, int maxLength) throws IOException {
+		int id = ((in[0] & 0xff) << 24) | ((in[1] & 0xff) << 16) | ((in[2] & 0xff) << 8) | (in[3] & 0xff);
+		ZstdDictDecompress dictionary = decompressDictionaries.get(id);
+		if (dictionary == null) {
+			throw new IOException(String.format("Unknown ZSTD dictionary %d", id));
+		}
+		long length = Zstd.getFrameContentSize(in, HEADER_SIZE, in.length - HEADER_SIZE);
+		if (length < 0) {
+			throw new IOException("ZSTD frame without content size");
+		}
+		byte[] out = new byte[checkLength(length, maxLength)];
+		long size = Zstd.decompressFastDict(out, 0, in, HEADER_SIZE, in.length - HEADER_SIZE, dictionary);
+		if (Zstd.isError(size)) {
+			throw new IOException(Zstd.getErrorName(size));
+		}
+		return out;
+	}
+
+	private static final class Dictionary {
+		final int id;
+		final ZstdDictCompress compress;
+
+		Dictionary(int id, ZstdDictCompress compress) {
+			this.id = id;
+			this.compress = compress;
+		}
+	}
+}
@@ -0,0 +1,461 @@
+package com.kryo.serializer.kryo;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Compact serializers for value types found in most cached beans : java.time as varints,
+ * UUID as two longs, BigInteger/BigDecimal as a varint when they fit in a long, and the
+ * empty, singleton and unmodifiable JDK collections that the default FieldSerializer
+ * can't rebuild faithfully. Enums need nothing : Kryo already writes their ordinal.
+ */
+public class CompactSerializers {
+
+	private CompactSerializers() {}
+
+	/**
+	 * Register the bundle; registration order fixes the ids, only append.
+	 */
+	public static void register(Kryo kryo) {
+		kryo.register(UUID.class, new UUIDSerializer());
+		kryo.register(BigInteger.class, new BigIntegerSerializer());
+		kryo.register(BigDecimal.class, new BigDecimalSerializer());
+		kryo.register(Instant.class, new InstantSerializer());
+		kryo.register(Duration.class, new DurationSerializer());
+		kryo.register(LocalDate.class, new LocalDateSerializer());
+		kryo.register(LocalTime.class, new LocalTimeSerializer());
+		kryo.register(LocalDateTime.class, new LocalDateTimeSerializer());
+		kryo.register(ZonedDateTime.class, new ZonedDateTimeSerializer());
+		kryo.register(OffsetDateTime.class, new OffsetDateTimeSerializer());
+		kryo.register(Collections.singletonList(null).getClass(), new SingletonListSerializer());
+		kryo.register(Collections.singleton(null).getClass(), new SingletonSetSerializer());
+		kryo.register(Collections.singletonMap(null, null).getClass(), new SingletonMapSerializer());
+		kryo.register(Collections.unmodifiableCollection(new ArrayList<Object>()).getClass(), new UnmodifiableCollectionSerializer());
+		kryo.register(Collections.unmodifiableList(new ArrayList<Object>()).getClass(), new UnmodifiableListSerializer());
+		kryo.register(Collections.unmodifiableList(new LinkedList<Object>()).getClass(), new UnmodifiableListSerializer());
+		kryo.register(Collections.unmodifiableSet(new LinkedHashSet<Object>()).getClass(), new UnmodifiableSetSerializer());
+		kryo.register(Collections.unmodifiableMap(new LinkedHashMap<Object, Object>()).getClass(), new UnmodifiableMapSerializer());
+		kryo.register(Arrays.asList().getClass(), new ArraysAsListSerializer());
+	}
+
+	static void writeBigInteger(Output output, BigInteger value) {
+		if (value.bitLength() < Long.SIZE) {
+			output.writeInt(0, true);
+			output.writeLong(value.longValue(), false);
+		} else {
+			byte[] bytes = value.toByteArray();
+			output.writeInt(bytes.length, true);
+			output.writeBytes(bytes);
+		}
+	}
+
+	static BigInteger readBigInteger(Input input) {
+		int length = input.readInt(true);
+		if (length == 0) {
+			return BigInteger.valueOf(input.readLong(false));
+		}
+		return new BigInteger(input.readBytes(length));
+	}
+
+	static void writeLocalDateTime(Output output, LocalDateTime value) {
+		output.writeLong(value.toLocalDate().toEpochDay(), false);
+		output.writeLong(value.toLocalTime().toNanoOfDay(), true);
+	}
+
+	static LocalDateTime readLocalDateTime(Input input) {
+		LocalDate date = LocalDate.ofEpochDay(input.readLong(false));
+		return LocalDateTime.of(date, LocalTime.ofNanoOfDay(input.readLong(true)));
+	}
+
+	public static class UUIDSerializer extends Serializer<UUID> {
+		public UUIDSerializer() {
+			super(false, true);
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, UUID uuid) {
+			output.writeLong(uuid.getMostSignificantBits());
+			output.writeLong(uuid.getLeastSignificantBits());
+		}
+
+		@Override
+		public UUID read(Kryo kryo, Input input, Class<UUID> type) {
+			return new UUID(input.readLong(), input.readLong());
+		}
+	}
+
+	public static class BigIntegerSerializer extends Serializer<BigInteger> {
+		public BigIntegerSerializer() {
+			super(false, true);
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, BigInteger value) {
+			writeBigInteger(output, value);
+		}
+
+		@Override
+		public BigInteger read(Kryo kryo, Input input, Class<BigInteger> type) {
+			return readBigInteger(input);
+		}
+	}
+
+	public static class BigDecimalSerializer extends Serializer<BigDecimal> {
+		public BigDecimalSerializer() {
+			super(false, true);
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, BigDecimal value) {
+			output.writeInt(value.scale(), false);
+			writeBigInteger(output, value.unscaledValue());
+		}
+
+		@Override
+		public BigDecimal read(Kryo kryo, Input input, Class<BigDecimal> type) {
+			int scale = input.readInt(false);
+			return new BigDecimal(readBigInteger(input), scale);
+		}
+	}
+
+	public static class InstantSerializer extends Serializer<Instant> {
+		public InstantSerializer() {
+			super(false, true);
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, Instant instant) {
+			output.writeLong(instant.getEpochSecond(), false);
+			output.writeInt(instant.getNano(), true);
+		}
+
+		@Override
+		public Instant read(Kryo kryo, Input input, Class<Instant> type) {
+			long seconds = input.readLong(false);
+			return Instant.ofEpochSecond(seconds, input.readInt(true));
+		}
+	}
+
+	public static class DurationSerializer extends Serializer<Duration> {
+		public DurationSerializer() {
+			super(false, true);
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, Duration duration) {
+			output.writeLong(duration.getSeconds(), false);
+			output.writeInt(duration.getNano(), true);
+		}
+
+		@Override
+		public Duration read(Kryo kryo, Input input, Class<Duration> type) {
+			long seconds = input.readLong(false);
+			return Duration.ofSeconds(seconds, input.readInt(true));
+		}
+	}
+
+	public static class LocalDateSerializer extends Serializer<LocalDate> {
+		public LocalDateSerializer() {
+			super(false, true);
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, LocalDate date) {
+			output.writeLong(date.toEpochDay(), false);
+		}
+
+		@Override
+		public LocalDate read(Kryo kryo, Input input, Class<LocalDate> type) {
+			return LocalDate.ofEpochDay(input.readLong(false));
+		}
+	}
+
+	public static class LocalTimeSerializer extends Serializer<LocalTime> {
+		public LocalTimeSerializer() {
+			super(false, true);
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, LocalTime time) {
+			output.writeLong(time.toNanoOfDay(), true);
+		}
+
+		@Override
+		public LocalTime read(Kryo kryo, Input input, Class<LocalTime> type) {
+			return LocalTime.ofNanoOfDay(input.readLong(true));
+		}
+	}
+
+	public static class LocalDateTimeSerializer extends Serializer<LocalDateTime> {
+		public LocalDateTimeSerializer() {
+			super(false, true);
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, LocalDateTime value) {
+			writeLocalDateTime(output, value);
+		}
+
+		@Override
+		public LocalDateTime read(Kryo kryo, Input input, Class<LocalDateTime> type) {
+			return readLocalDateTime(input);
+		}
+	}
+
+	public static class ZonedDateTimeSerializer extends Serializer<ZonedDateTime> {
+		public ZonedDateTimeSerializer() {
+			super(false, true);
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, ZonedDateTime value) {
+			writeLocalDateTime(output, value.toLocalDateTime());
+			output.writeInt(value.getOffset().getTotalSeconds(), false);
+			output.writeString(value.getZone().getId());
+		}
+
+		@Override
+		public ZonedDateTime read(Kryo kryo, Input input, Class<ZonedDateTime> type) {
+			LocalDateTime dateTime = readLocalDateTime(input);
+			ZoneOffset offset = ZoneOffset.ofTotalSeconds(input.readInt(false));
+			// the offset is kept while the zone rules still allow it, they may have changed since the write
+			return ZonedDateTime.ofLocal(dateTime, ZoneId.of(input.readString()), offset);
+		}
+	}
+
+	public static class OffsetDateTimeSerializer extends Serializer<OffsetDateTime> {
+		public OffsetDateTimeSerializer() {
+			super(false, true);
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, OffsetDateTime value) {
+			writeLocalDateTime(output, value.toLocalDateTime());
+			output.writeInt(value.getOffset().getTotalSeconds(), false);
+		}
+
+		@Override
+		public OffsetDateTime read(Kryo kryo, Input input, Class<OffsetDateTime> type) {
+			LocalDateTime dateTime = readLocalDateTime(input);
+			return OffsetDateTime.of(dateTime, ZoneOffset.ofTotalSeconds(input.readInt(false)));
+		}
+	}
+
+	/**
+	 * Collections.EMPTY_LIST and friends : nothing written, the shared instance read back.
+	 */
+	public static class EmptyListSerializer extends Serializer<List<?>> {
+		public EmptyListSerializer() {
+			super(false, true);
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, List<?> list) {
+		}
+
+		@Override
+		public List<?> read(Kryo kryo, Input input, Class<List<?>> type) {
+			return Collections.emptyList();
+		}
+	}
+
+	public static class EmptySetSerializer extends Serializer<Set<?>> {
+		public EmptySetSerializer() {
+			super(false, true);
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, Set<?> set) {
+		}
+
+		@Override
+		public Set<?> read(Kryo kryo, Input input, Class<Set<?>> type) {
+			return Collections.emptySet();
+		}
+	}
+
+	public static class EmptyMapSerializer extends Serializer<Map<?, ?>> {
+		public EmptyMapSerializer() {
+			super(false, true);
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, Map<?, ?> map) {
+		}
+
+		@Override
+		public Map<?, ?> read(Kryo kryo, Input input, Class<Map<?, ?>> type) {
+			return Collections.emptyMap();
+		}
+	}
+
+	public static class SingletonListSerializer extends Serializer<List<?>> {
+		public SingletonListSerializer() {
+			super(false, true);
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, List<?> list) {
+			kryo.writeClassAndObject(output, list.get(0));
+		}
+
+		@Override
+		public List<?> read(Kryo kryo, Input input, Class<List<?>> type) {
+			return Collections.singletonList(kryo.readClassAndObject(input));
+		}
+	}
+
+	public static class SingletonSetSerializer extends Serializer<Set<?>> {
+		public SingletonSetSerializer() {
+			super(false, true);
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, Set<?> set) {
+			kryo.writeClassAndObject(output, set.iterator().next());
+		}
+
+		@Override
+		public Set<?> read(Kryo kryo, Input input, Class<Set<?>> type) {
+			return Collections.singleton(kryo.readClassAndObject(input));
+		}
+	}
+
+	public static class SingletonMapSerializer extends Serializer<Map<?, ?>> {
+		public SingletonMapSerializer() {
+			super(false, true);
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, Map<?, ?> map) {
+			Map.Entry<?, ?> entry = map.entrySet().iterator().next();
+			kryo.writeClassAndObject(output, entry.getKey());
+			kryo.writeClassAndObject(output, entry.getValue());
+		}
+
+		@Override
+		public Map<?, ?> read(Kryo kryo, Input input, Class<Map<?, ?>> type) {
+			Object key = kryo.readClassAndObject(input);
+			return Collections.singletonMap(key, kryo.readClassAndObject(input));
+		}
+	}
+
+	/**
+	 * Unmodifiable wrappers are written as their elements in iteration order and rebuilt
+	 * around an ArrayList, LinkedHashSet or LinkedHashMap : the wrapped implementation is not kept.
+	 */
+	public static class UnmodifiableCollectionSerializer extends Serializer<Collection<?>> {
+		public UnmodifiableCollectionSerializer() {
+			super(false, true);
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, Collection<?> collection) {
+			output.writeInt(collection.size(), true);
+			for (Object element : collection) {
+				kryo.writeClassAndObject(output, element);
+			}
+		}
+
+		@Override
+		public Collection<?> read(Kryo kryo, Input input, Class<Collection<?>> type) {
+			return Collections.unmodifiableCollection(readElements(kryo, input));
+		}
+
+		ArrayList<Object> readElements(Kryo kryo, Input input) {
+			int size = input.readInt(true);
+			ArrayList<Object> elements = new ArrayList<Object>(size);
+			for (int i = 0; i < size; i++) {
+				elements.add(kryo.readClassAndObject(input));
+			}
+			return elements;
+		}
+	}
+
+	public static class UnmodifiableListSerializer extends UnmodifiableCollectionSerializer {
+		@Override
+		public Collection<?> read(Kryo kryo, Input input, Class<Collection<?>> type) {
+			return Collections.unmodifiableList(readElements(kryo, input));
+		}
+	}
+
+	public static class UnmodifiableSetSerializer extends UnmodifiableCollectionSerializer {
+		@Override
+		public Collection<?> read(Kryo kryo, Input input, Class<Collection<?>> type) {
+			return Collections.unmodifiableSet(new LinkedHashSet<Object>(readElements(kryo, input)));
+		}
+	}
+
+	public static class UnmodifiableMapSerializer extends Serializer<Map<?, ?>> {
+		public UnmodifiableMapSerializer() {
+			super(false, true);
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, Map<?, ?> map) {
+			output.writeInt(map.size(), true);
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				kryo.writeClassAndObject(output, entry.getKey());
+				kryo.writeClassAndObject(output, entry.getValue());
+			}
+		}
+
+		@Override
+		public Map<?, ?> read(Kryo kryo, Input input, Class<Map<?, ?>> type) {
+			int size = input.readInt(true);
+			Map<Object, Object> map = new LinkedHashMap<Object, Object>(size * 4 / 3 + 1);
+			for (int i = 0; i < size; i++) {
+				Object key = kryo.readClassAndObject(input);
+				map.put(key, kryo.readClassAndObject(input));
+			}
+			return Collections.unmodifiableMap(map);
+		}
+	}
+
+	/**
+	 * Arrays.asList views, rebuilt around a new array.
+	 */
+	public static class ArraysAsListSerializer extends Serializer<List<?>> {
+		@Override
+		public void write(Kryo kryo, Output output, List<?> list) {
+			output.writeInt(list.size(), true);
+			for (Object element : list) {
+				kryo.writeClassAndObject(output, element);
+			}
+		}
+
+		@Override
+		public List<?> read(Kryo kryo, Input input, Class<List<?>> type) {
+			Object[] elements = new Object[input.readInt(true)];
+			for (int i = 0; i < elements.length; i++) {
+				elements[i] = kryo.readClassAndObject(input);
+			}
+			return Arrays.asList(elements);
+		}
+	}
+}
@@ -7,18 +7,26 @@ import com.esotericsoftware.kryo.Serializer;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 
+/**
+ * Date as a varint of its epoch millis, 6 bytes for current dates. Dates were written as a
+ * decimal string before : values of that format carry OptimizeTranscoder.KRYO_LEGACY and are
+ * read as misses, never by this serializer.
+ */
 public class DateSerializer extends Serializer<Date> {
 	
 	@Override
 	public Date read(Kryo kryo, Input input, Class<Date> type) {
-		long time = Long.valueOf(input.readString());
+		long time = input.readLong(true);
 		return new java.util.Date(time);
 	}
 
 	@Override
 	public void write(Kryo kryo, Output output, Date date) {
-		String stringValue = String.valueOf(date.getTime());
-		output.writeString(stringValue);
+		output.writeLong(date.getTime(), true);
 	}
-}
 
+	@Override
+	public Date copy(Kryo kryo, Date original) {
+		return new Date(original.getTime());
+	}
+}
@@ -17,28 +17,73 @@ import com.esotericsoftware.shaded.org.objenesis.strategy.StdInstantiatorStrateg
 public class KryoFactory {
 	
 	private static Kryo kryo;
+
+	private static final KryoPool pool = new KryoPool();
+
+	private static KryoRegistry registry;
+
+	private static volatile boolean registrationRequired = Boolean.getBoolean("kryo.registrationRequired");
 	
 	public KryoFactory() {}
-	
+
+	/**
+	 * Application class ids, loaded from the kryo-registry.properties manifests on first call.
+	 * Throws IllegalStateException when ids clash.
+	 */
+	public static synchronized KryoRegistry getRegistry() {
+		if (registry == null) {
+			registry = KryoRegistry.fromManifests();
+		}
+		return registry;
+	}
+
+	/**
+	 * Fail on classes missing from the registry instead of writing their name, meant for tests.
+	 * Defaults to the kryo.registrationRequired system property, applies to Kryo instances created afterwards.
+	 */
+	public static void setRegistrationRequired(boolean registrationRequired) {
+		KryoFactory.registrationRequired = registrationRequired;
+	}
+
+	/**
+	 * Shared instance, Kryo is not thread-safe : concurrent callers must use getPool().
+	 */
 	public static synchronized Kryo getInstance() {
 		if(kryo == null) {
-			kryo = new Kryo();
-			kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
-			kryo.register(HashSet.class);
-			kryo.register(HashMap.class);
-			kryo.register(ArrayList.class);
-			kryo.register(ArrayDeque.class);
-			kryo.register(TreeSet.class);
-			kryo.register(TreeMap.class);
-			kryo.register(LinkedList.class);
-			kryo.register(LinkedHashSet.class);
-			kryo.register(LinkedHashMap.class);
-			kryo.register(java.util.Date.class, new DateSerializer());
-			kryo.register(Collections.EMPTY_LIST.getClass());
-			kryo.register(Collections.EMPTY_MAP.getClass());
-			kryo.register(Collections.EMPTY_SET.getClass());
+			kryo = newKryo();
 		}
 		
 		return kryo;
 	}
+
+	public static KryoPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * New Kryo instance with the registration template applied.
+	 * Built-in registrations take implicit ids below KryoRegistry.FIRST_ID : only append to them.
+	 */
+	public static Kryo newKryo() {
+		Kryo kryo = new Kryo();
+		kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+		kryo.setRegistrationRequired(registrationRequired);
+		kryo.register(HashSet.class);
+		kryo.register(HashMap.class);
+		kryo.register(ArrayList.class);
+		kryo.register(ArrayDeque.class);
+		kryo.register(TreeSet.class);
+		kryo.register(TreeMap.class);
+		kryo.register(LinkedList.class);
+		kryo.register(LinkedHashSet.class);
+		kryo.register(LinkedHashMap.class);
+		kryo.register(java.util.Date.class, new DateSerializer());
+		kryo.register(Collections.EMPTY_LIST.getClass(), new CompactSerializers.EmptyListSerializer());
+		kryo.register(Collections.EMPTY_MAP.getClass(), new CompactSerializers.EmptyMapSerializer());
+		kryo.register(Collections.EMPTY_SET.getClass(), new CompactSerializers.EmptySetSerializer());
+		CompactSerializers.register(kryo);
+		PackedSerializers.register(kryo);
+		getRegistry().applyTo(kryo);
+		return kryo;
+	}
 }
@@ -0,0 +1,31 @@
+package com.kryo.serializer.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.kryo.serializer.util.Pool;
+
+/**
+ * Bounded pool of Kryo instances configured by KryoFactory.newKryo().
+ */
+public class KryoPool extends Pool<Kryo> {
+
+	public static final int DEFAULT_MAX_IDLE = Runtime.getRuntime().availableProcessors() * 4;
+
+	public KryoPool() {
+		this(DEFAULT_MAX_IDLE);
+	}
+
+	public KryoPool(int maxIdle) {
+		super(maxIdle);
+	}
+
+	@Override
+	protected Kryo create() {
+		return KryoFactory.newKryo();
+	}
+
+	@Override
+	protected boolean reset(Kryo kryo) {
+		kryo.reset();
+		return true;
+	}
+}
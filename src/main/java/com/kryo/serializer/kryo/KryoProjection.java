@@ -0,0 +1,337 @@
+package com.kryo.serializer.kryo;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.NotNull;
+import com.esotericsoftware.kryo.ReferenceResolver;
+import com.esotericsoftware.kryo.Registration;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.CollectionSerializer;
+import com.esotericsoftware.kryo.serializers.DefaultSerializers.StringSerializer;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
+import com.esotericsoftware.kryo.serializers.FieldSerializer.CachedField;
+import com.esotericsoftware.kryo.serializers.MapSerializer;
+import com.esotericsoftware.kryo.util.MapReferenceResolver;
+import com.kryo.serializer.kryo.PackedSerializers.PackedCollectionSerializer;
+import com.kryo.serializer.kryo.PackedSerializers.PackedMapSerializer;
+
+/**
+ * Reads some fields of a bean written by Kryo.writeClassAndObject with the default FieldSerializer.
+ * Fields are walked in the serializer order : requested ones are read by their CachedField, the
+ * others are skipped. Strings, collections, maps (packed ones too) and nested beans are skipped without being
+ * built (primitives of nested beans go through a scratch instance); values with other
+ * serializers are read and dropped.
+ */
+public class KryoProjection {
+
+	/** stands for a skipped object in the reference table */
+	private static final Object SKIPPED = new Object();
+
+	private final Kryo kryo;
+	private final Set<String> fields;
+	private final Map<String, Object> values = new HashMap<String, Object>();
+	private final Skipper skipper = new Skipper();
+	private int skipping;
+
+	private KryoProjection(Kryo kryo, Set<String> fields) {
+		this.kryo = kryo;
+		this.fields = fields;
+	}
+
+	/**
+	 * Requested fields of the object of type read from input, names not found in type are ignored.
+	 * kryo must auto reset, as KryoFactory creates it.
+	 * Null when the payload can't be projected (other class, custom serializer, a requested value
+	 * referencing a skipped object) : decode it fully and use fieldsOf then.
+	 */
+	public static Map<String, Object> read(Kryo kryo, Input input, Class<?> type, Set<String> fields) {
+		if (!kryo.getReferences()) {
+			return null;
+		}
+		KryoProjection projection = new KryoProjection(kryo, fields);
+		ReferenceResolver resolver = kryo.getReferenceResolver();
+		ReferenceResolver projectionResolver = projection.new ProjectionReferenceResolver();
+		projectionResolver.setKryo(kryo);
+		kryo.setReferenceResolver(projectionResolver);
+		// the class is read outside of readObject : an auto reset there would drop the class names
+		// already read, and Kryo 2.22 doesn't clear a sparse name table fully
+		kryo.setAutoReset(false);
+		try {
+			Registration registration = kryo.readClass(input);
+			if (registration == null || registration.getType() != type || !isBean(registration.getSerializer(), type)) {
+				return null;
+			}
+			kryo.readObject(input, type, projection.new BeanReader());
+			return projection.values;
+		} catch (KryoException e) {
+			// field reads wrap the exceptions they see
+			for (Throwable t = e; t != null; t = t.getCause()) {
+				if (t instanceof SkippedReferenceException) {
+					return null;
+				}
+			}
+			throw e;
+		} finally {
+			kryo.reset();
+			kryo.setReferenceResolver(resolver);
+			kryo.setAutoReset(true);
+		}
+	}
+
+	/**
+	 * Requested fields of an already decoded object, by reflection.
+	 */
+	public static Map<String, Object> fieldsOf(Object object, Set<String> fields) {
+		Map<String, Object> values = new HashMap<String, Object>();
+		for (Class<?> type = object.getClass(); type != null && type != Object.class; type = type.getSuperclass()) {
+			for (Field field : type.getDeclaredFields()) {
+				if (fields.contains(field.getName()) && !values.containsKey(field.getName())) {
+					values.put(field.getName(), get(field, object));
+				}
+			}
+		}
+		return values;
+	}
+
+	private static boolean isBean(Serializer<?> serializer, Class<?> type) {
+		return serializer.getClass() == FieldSerializer.class && type.getTypeParameters().length == 0;
+	}
+
+	private static Object get(Field field, Object object) {
+		try {
+			field.setAccessible(true);
+			return field.get(object);
+		} catch (IllegalAccessException e) {
+			throw new KryoException("Can't read field " + field, e);
+		}
+	}
+
+	/**
+	 * Generic parameters of a field type as FieldSerializer passes them to the field serializer.
+	 */
+	private static Class<?>[] generics(Type type) {
+		if (!(type instanceof ParameterizedType)) {
+			return null;
+		}
+		Type[] actualTypes = ((ParameterizedType) type).getActualTypeArguments();
+		Class<?>[] generics = new Class<?>[actualTypes.length];
+		for (int i = 0; i < actualTypes.length; i++) {
+			if (actualTypes[i] instanceof Class) {
+				generics[i] = (Class<?>) actualTypes[i];
+			} else if (actualTypes[i] instanceof ParameterizedType) {
+				generics[i] = (Class<?>) ((ParameterizedType) actualTypes[i]).getRawType();
+			} else {
+				generics[i] = Object.class;
+			}
+		}
+		return generics;
+	}
+
+	private void skipField(Input input, Field field) {
+		Class<?> type = field.getType();
+		if (kryo.isFinal(type)) {
+			skipper.setGenerics(kryo, generics(field.getGenericType()));
+			if (field.isAnnotationPresent(NotNull.class)) {
+				kryo.readObject(input, type, skipper);
+			} else {
+				kryo.readObjectOrNull(input, type, skipper);
+			}
+			return;
+		}
+		Registration registration = kryo.readClass(input);
+		if (registration != null) {
+			Class<?> written = registration.getType();
+			skipper.setGenerics(kryo, generics(field.getGenericType()));
+			kryo.readObject(input, written, skipper);
+		}
+	}
+
+	/**
+	 * Skip an element or value of a collection or map written with the default settings.
+	 */
+	private void skipElement(Input input, Class<?> type) {
+		if (type != null) {
+			kryo.readObjectOrNull(input, type, skipper);
+			return;
+		}
+		Registration registration = kryo.readClass(input);
+		if (registration != null) {
+			Class<?> written = registration.getType();
+			kryo.readObject(input, written, skipper);
+		}
+	}
+
+	private static void skipString(Input input) {
+		int b = input.readByte();
+		if ((b & 0x80) == 0) {
+			// ascii, the last char has its high bit set
+			while ((input.readByte() & 0x80) == 0) {
+			}
+			return;
+		}
+		int charCount = b & 0x3F;
+		if ((b & 0x40) != 0) {
+			int shift = 6;
+			do {
+				b = input.readByte();
+				charCount |= (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0 && shift < 34);
+		}
+		// 0 is null, 1 the empty string
+		for (int i = 1; i < charCount; i++) {
+			int c = input.readByte() & 0xFF;
+			switch (c >> 4) {
+			case 12:
+			case 13:
+				input.skip(1);
+				break;
+			case 14:
+				input.skip(2);
+				break;
+			default:
+			}
+		}
+	}
+
+	/**
+	 * Reads the requested fields of the top level bean.
+	 */
+	private class BeanReader extends Serializer<Object> {
+
+		@Override
+		public void write(Kryo kryo, Output output, Object object) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Object read(Kryo kryo, Input input, Class<Object> type) {
+			Object object = kryo.newInstance(type);
+			kryo.reference(object);
+			for (CachedField<?> cachedField : ((FieldSerializer<?>) kryo.getSerializer(type)).getFields()) {
+				Field field = cachedField.getField();
+				if (fields.contains(field.getName())) {
+					cachedField.read(input, object);
+					values.put(field.getName(), get(field, object));
+				} else if (field.getType().isPrimitive()) {
+					cachedField.read(input, object);
+				} else {
+					skipField(input, field);
+				}
+			}
+			return object;
+		}
+	}
+
+	/**
+	 * Consumes a value without building it, read returns SKIPPED.
+	 */
+	private class Skipper extends Serializer<Object> {
+
+		private Class<?>[] generics;
+
+		@Override
+		@SuppressWarnings("rawtypes") // the raw signature of Serializer
+		public void setGenerics(Kryo kryo, Class[] generics) {
+			this.generics = generics;
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, Object object) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		public Object read(Kryo kryo, Input input, Class<Object> type) {
+			Class<?>[] generics = this.generics;
+			this.generics = null;
+			skipping++;
+			try {
+				Serializer serializer = kryo.getSerializer(type);
+				if (serializer instanceof StringSerializer) {
+					skipString(input);
+				} else if (serializer.getClass() == CollectionSerializer.class || serializer.getClass() == PackedCollectionSerializer.class) {
+					// packed numbers are skipped whole, otherwise the elements follow
+					if (serializer.getClass() == CollectionSerializer.class || PackedSerializers.skipNumbers(input) < 0) {
+						Class<?> elementType = finalGeneric(generics, 0);
+						for (int i = input.readVarInt(true); i > 0; i--) {
+							skipElement(input, elementType);
+						}
+					}
+				} else if (serializer.getClass() == MapSerializer.class || serializer.getClass() == PackedMapSerializer.class) {
+					Class<?> keyType = finalGeneric(generics, 0);
+					Class<?> valueType = finalGeneric(generics, 1);
+					int packedKeys = serializer.getClass() == MapSerializer.class ? -1 : PackedSerializers.skipNumbers(input);
+					if (packedKeys < 0) {
+						for (int i = input.readInt(true); i > 0; i--) {
+							skipElement(input, keyType);
+							skipElement(input, valueType);
+						}
+					} else {
+						for (int i = packedKeys; i > 0; i--) {
+							skipElement(input, valueType);
+						}
+					}
+				} else if (isBean(serializer, type)) {
+					Object scratch = null;
+					for (CachedField<?> cachedField : ((FieldSerializer<?>) serializer).getFields()) {
+						Field field = cachedField.getField();
+						if (field.getType().isPrimitive()) {
+							if (scratch == null) {
+								scratch = kryo.newInstance(type);
+							}
+							cachedField.read(input, scratch);
+						} else {
+							skipField(input, field);
+						}
+					}
+				} else {
+					serializer.setGenerics(kryo, generics);
+					serializer.read(kryo, input, type);
+				}
+				return SKIPPED;
+			} finally {
+				skipping--;
+			}
+		}
+
+		private Class<?> finalGeneric(Class<?>[] generics, int i) {
+			return generics != null && generics.length > i && generics[i] != null && kryo.isFinal(generics[i]) ? generics[i] : null;
+		}
+	}
+
+	/**
+	 * Fails the projection when a requested value references a skipped object.
+	 */
+	private class ProjectionReferenceResolver extends MapReferenceResolver {
+
+		@Override
+		@SuppressWarnings("rawtypes") // the raw signature of ReferenceResolver
+		public Object getReadObject(Class type, int id) {
+			Object object = super.getReadObject(type, id);
+			if (object == SKIPPED && skipping == 0) {
+				throw new SkippedReferenceException();
+			}
+			return object;
+		}
+	}
+
+	private static class SkippedReferenceException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		SkippedReferenceException() {
+			super(null, null, false, false);
+		}
+	}
+}
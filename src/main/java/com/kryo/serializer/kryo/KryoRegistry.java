@@ -0,0 +1,116 @@
+package com.kryo.serializer.kryo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import com.esotericsoftware.kryo.Kryo;
+
+/**
+ * Stable numeric class ids for application types, so Kryo writes a varint id instead
+ * of the class name on every value. Ids come from every kryo-registry.properties
+ * manifest on the classpath (id=fully.qualified.ClassName) and from register calls made
+ * before the first Kryo is created. Ids below FIRST_ID are reserved for KryoFactory
+ * built-ins; a clash between two manifests fails fast.
+ */
+public class KryoRegistry {
+
+	static final Logger LOGGER = LogManager.getLogger(KryoRegistry.class);
+
+	public static final String MANIFEST = "kryo-registry.properties";
+	public static final int FIRST_ID = 100;
+
+	private final Map<Integer, Class<?>> classes = new TreeMap<Integer, Class<?>>();
+	private final Map<Class<?>, Integer> ids = new HashMap<Class<?>, Integer>();
+	private volatile boolean frozen = false;
+
+	/**
+	 * Registry loaded from all the manifests visible to the context class loader.
+	 */
+	public static KryoRegistry fromManifests() {
+		ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+		if (classLoader == null) {
+			classLoader = KryoRegistry.class.getClassLoader();
+		}
+		KryoRegistry registry = new KryoRegistry();
+		try {
+			Enumeration<URL> manifests = classLoader.getResources(MANIFEST);
+			while (manifests.hasMoreElements()) {
+				registry.load(manifests.nextElement(), classLoader);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Kryo registry : can't read " + MANIFEST, e);
+		}
+		return registry;
+	}
+
+	public synchronized KryoRegistry register(int id, Class<?> type) {
+		if (frozen) {
+			throw new IllegalStateException(String.format("Kryo registry : %s registered after Kryo instances were created", type.getName()));
+		}
+		if (id < FIRST_ID) {
+			throw new IllegalStateException(String.format("Kryo registry : id %d of %s is reserved, use ids >= %d", id, type.getName(), FIRST_ID));
+		}
+		Class<?> registered = classes.get(id);
+		if (registered != null && registered != type) {
+			throw new IllegalStateException(String.format("Kryo registry : id %d clash between %s and %s", id, registered.getName(), type.getName()));
+		}
+		Integer registeredId = ids.get(type);
+		if (registeredId != null && registeredId != id) {
+			throw new IllegalStateException(String.format("Kryo registry : %s registered with ids %d and %d", type.getName(), registeredId, id));
+		}
+		classes.put(id, type);
+		ids.put(type, id);
+		return this;
+	}
+
+	public synchronized Map<Integer, Class<?>> getClasses() {
+		return Collections.unmodifiableMap(new TreeMap<Integer, Class<?>>(classes));
+	}
+
+	/**
+	 * Register every class on kryo, no registration is accepted afterwards.
+	 */
+	synchronized void applyTo(Kryo kryo) {
+		frozen = true;
+		for (Map.Entry<Integer, Class<?>> entry : classes.entrySet()) {
+			kryo.register(entry.getValue(), entry.getKey());
+		}
+	}
+
+	private void load(URL manifest, ClassLoader classLoader) throws IOException {
+		Properties properties = new Properties();
+		InputStream is = manifest.openStream();
+		try {
+			properties.load(is);
+		} finally {
+			is.close();
+		}
+		for (String key : properties.stringPropertyNames()) {
+			String className = properties.getProperty(key).trim();
+			int id;
+			try {
+				id = Integer.parseInt(key.trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalStateException(String.format("Kryo registry : invalid id %s in %s", key, manifest));
+			}
+			try {
+				register(id, Class.forName(className, false, classLoader));
+			} catch (ClassNotFoundException e) {
+				throw new IllegalStateException(String.format("Kryo registry : class %s not found (%s)", className, manifest), e);
+			}
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug(String.format("Kryo registry : %d classes from %s", properties.size(), manifest));
+		}
+	}
+}
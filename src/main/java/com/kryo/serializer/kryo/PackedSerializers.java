@@ -0,0 +1,521 @@
+package com.kryo.serializer.kryo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeSet;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.CollectionSerializer;
+import com.esotericsoftware.kryo.serializers.MapSerializer;
+
+/**
+ * Collections of Integer or Long only, maps keyed by them and int/long arrays written as packed
+ * numbers instead of a class marker and a value per element : zigzag varints of the values or of
+ * their deltas, whichever is smaller, or a bitmap when the values are increasing and dense.
+ * Hash sets and hash maps are sorted first, their order doesn't matter. Other contents go
+ * through the Kryo serializers after a 0 header. Collections and maps are read back presized.
+ */
+public class PackedSerializers {
+
+	static final int GENERIC = 0;
+
+	private static final int LONG = 1;
+	private static final int PLAIN = 1 << 1;
+	private static final int DELTA = 2 << 1;
+	private static final int BITMAP = 3 << 1;
+
+	private static final Comparator<Map.Entry<?, ?>> BY_KEY = new Comparator<Map.Entry<?, ?>>() {
+		@Override
+		public int compare(Map.Entry<?, ?> a, Map.Entry<?, ?> b) {
+			return Long.compare(((Number) a.getKey()).longValue(), ((Number) b.getKey()).longValue());
+		}
+	};
+
+	private PackedSerializers() {}
+
+	/**
+	 * Replace the serializers of the collections registered by KryoFactory and of int[] and long[] :
+	 * the classes keep their ids.
+	 */
+	public static void register(Kryo kryo) {
+		kryo.register(HashSet.class, new PackedCollectionSerializer());
+		kryo.register(ArrayList.class, new PackedCollectionSerializer());
+		kryo.register(ArrayDeque.class, new PackedCollectionSerializer());
+		kryo.register(LinkedList.class, new PackedCollectionSerializer());
+		kryo.register(LinkedHashSet.class, new PackedCollectionSerializer());
+		kryo.register(TreeSet.class, new PackedTreeSetSerializer());
+		kryo.register(HashMap.class, new PackedMapSerializer());
+		kryo.register(LinkedHashMap.class, new PackedMapSerializer());
+		kryo.register(int[].class, new PackedIntArraySerializer());
+		kryo.register(long[].class, new PackedLongArraySerializer());
+	}
+
+	/**
+	 * Values of the numbers, all of type, null when an element is null or of another type.
+	 */
+	static long[] values(Collection<?> numbers, Class<?> type) {
+		long[] values = new long[numbers.size()];
+		int i = 0;
+		for (Object number : numbers) {
+			if (number == null || number.getClass() != type || i == values.length) {
+				return null;
+			}
+			values[i++] = ((Number) number).longValue();
+		}
+		return i == values.length ? values : null;
+	}
+
+	/**
+	 * Integer or Long when first is one of them, null otherwise.
+	 */
+	static Class<?> numberType(Object first) {
+		Class<?> type = first == null ? null : first.getClass();
+		return type == Integer.class || type == Long.class ? type : null;
+	}
+
+	/**
+	 * Header, count and values in the smallest of the encodings.
+	 */
+	static void writeNumbers(Output output, long[] values, boolean longs) {
+		long plainBytes = 0;
+		long deltaBytes = 0;
+		boolean increasing = true;
+		long previous = 0;
+		for (int i = 0; i < values.length; i++) {
+			long value = values[i];
+			plainBytes += varLength(value);
+			deltaBytes += varLength(value - previous);
+			if (i > 0 && value <= previous) {
+				increasing = false;
+			}
+			previous = value;
+		}
+		int encoding = deltaBytes < plainBytes ? DELTA : PLAIN;
+		long bitmapLength = -1;
+		if (increasing && values.length > 0) {
+			long range = values[values.length - 1] - values[0];
+			if (range >= 0 && range < Integer.MAX_VALUE && range / 8 + 1 < Math.min(deltaBytes, plainBytes)) {
+				encoding = BITMAP;
+				bitmapLength = range / 8 + 1;
+			}
+		}
+		output.writeVarInt(encoding | (longs ? LONG : 0), true);
+		output.writeVarInt(values.length, true);
+		switch (encoding) {
+		case PLAIN:
+			for (long value : values) {
+				output.writeVarLong(value, false);
+			}
+			break;
+		case DELTA:
+			previous = 0;
+			for (long value : values) {
+				output.writeVarLong(value - previous, false);
+				previous = value;
+			}
+			break;
+		default:
+			long min = values[0];
+			output.writeVarLong(min, false);
+			output.writeVarInt((int) bitmapLength, true);
+			int index = 0;
+			int bits = 0;
+			for (long value : values) {
+				int bit = (int) (value - min);
+				for (; index < bit >>> 3; index++) {
+					output.writeByte(bits);
+					bits = 0;
+				}
+				bits |= 1 << (bit & 7);
+			}
+			output.writeByte(bits);
+		}
+	}
+
+	/**
+	 * Values written by writeNumbers, header already read.
+	 */
+	static long[] readNumbers(Input input, int header) {
+		long[] values = new long[input.readVarInt(true)];
+		switch (header & ~LONG) {
+		case PLAIN:
+			for (int i = 0; i < values.length; i++) {
+				values[i] = input.readVarLong(false);
+			}
+			break;
+		case DELTA:
+			long previous = 0;
+			for (int i = 0; i < values.length; i++) {
+				previous += input.readVarLong(false);
+				values[i] = previous;
+			}
+			break;
+		case BITMAP:
+			long min = input.readVarLong(false);
+			int length = input.readVarInt(true);
+			int i = 0;
+			for (int index = 0; index < length; index++) {
+				for (int bits = input.readByte() & 0xFF; bits != 0; bits &= bits - 1) {
+					if (i == values.length) {
+						throw new KryoException("Bitmap holds more than " + values.length + " values");
+					}
+					values[i++] = min + (index << 3) + Integer.numberOfTrailingZeros(bits);
+				}
+			}
+			break;
+		default:
+			throw new KryoException("Unknown packed numbers header " + header);
+		}
+		return values;
+	}
+
+	/**
+	 * Skip packed numbers after their header, the count skipped; -1 on a GENERIC header, the
+	 * Kryo serializer format follows then.
+	 */
+	static int skipNumbers(Input input) {
+		int header = input.readVarInt(true);
+		if (header == GENERIC) {
+			return -1;
+		}
+		int count = input.readVarInt(true);
+		if ((header & ~LONG) == BITMAP) {
+			input.readVarLong(false);
+			input.skip(input.readVarInt(true));
+		} else {
+			for (int i = 0; i < count; i++) {
+				input.readVarLong(false);
+			}
+		}
+		return count;
+	}
+
+	static Object box(long value, int header) {
+		return (header & LONG) != 0 ? (Object) Long.valueOf(value) : (Object) Integer.valueOf((int) value);
+	}
+
+	/**
+	 * Bytes of the zigzag varint of value.
+	 */
+	static int varLength(long value) {
+		long zigzag = (value << 1) ^ (value >> 63);
+		int length = 1;
+		while ((zigzag >>>= 7) != 0 && length < 9) {
+			length++;
+		}
+		return length;
+	}
+
+	static int capacity(int size) {
+		return size * 4 / 3 + 1;
+	}
+
+	/**
+	 * Order not kept by the collection, the values can be sorted.
+	 */
+	private static boolean unordered(Object collection) {
+		return collection instanceof HashSet && !(collection instanceof LinkedHashSet)
+				|| collection instanceof HashMap && !(collection instanceof LinkedHashMap);
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static class PackedCollectionSerializer extends CollectionSerializer {
+
+		@Override
+		public void write(Kryo kryo, Output output, Collection collection) {
+			Class<?> type = collection.isEmpty() || !packable(collection) ? null : numberType(collection.iterator().next());
+			long[] values = type == null ? null : values(collection, type);
+			if (values == null) {
+				output.writeVarInt(GENERIC, true);
+				writeGeneric(kryo, output, collection);
+				return;
+			}
+			setGenerics(kryo, null);
+			if (unordered(collection)) {
+				Arrays.sort(values);
+			}
+			writeNumbers(output, values, type == Long.class);
+		}
+
+		@Override
+		public Collection read(Kryo kryo, Input input, Class<Collection> type) {
+			int header = input.readVarInt(true);
+			if (header == GENERIC) {
+				return super.read(kryo, input, type);
+			}
+			setGenerics(kryo, null);
+			long[] values = readNumbers(input, header);
+			Collection collection = newCollection(kryo, type, values.length);
+			kryo.reference(collection);
+			for (long value : values) {
+				collection.add(box(value, header));
+			}
+			return collection;
+		}
+
+		protected boolean packable(Collection collection) {
+			return true;
+		}
+
+		protected void writeGeneric(Kryo kryo, Output output, Collection collection) {
+			super.write(kryo, output, collection);
+		}
+
+		/**
+		 * Empty collection of type with room for size elements.
+		 */
+		protected Collection newCollection(Kryo kryo, Class<?> type, int size) {
+			if (type == ArrayList.class) {
+				return new ArrayList(size);
+			} else if (type == HashSet.class) {
+				return new HashSet(capacity(size));
+			} else if (type == LinkedHashSet.class) {
+				return new LinkedHashSet(capacity(size));
+			} else if (type == ArrayDeque.class) {
+				return new ArrayDeque(size);
+			}
+			return (Collection) kryo.newInstance(type);
+		}
+	}
+
+	/**
+	 * TreeSet packed in natural order only; with a comparator, the comparator is written before
+	 * the elements and given back to the set.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static class PackedTreeSetSerializer extends PackedCollectionSerializer {
+
+		@Override
+		protected boolean packable(Collection collection) {
+			return ((TreeSet) collection).comparator() == null;
+		}
+
+		@Override
+		protected void writeGeneric(Kryo kryo, Output output, Collection collection) {
+			kryo.writeClassAndObject(output, ((TreeSet) collection).comparator());
+			super.writeGeneric(kryo, output, collection);
+		}
+
+		@Override
+		protected Collection create(Kryo kryo, Input input, Class<Collection> type) {
+			return new TreeSet((Comparator) kryo.readClassAndObject(input));
+		}
+
+		@Override
+		protected Collection newCollection(Kryo kryo, Class<?> type, int size) {
+			return new TreeSet();
+		}
+	}
+
+	/**
+	 * Maps keyed by Integer or Long only : keys packed, then the values in the same order.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static class PackedMapSerializer extends MapSerializer {
+
+		private Class valueGenericType;
+
+		@Override
+		public void setGenerics(Kryo kryo, Class[] generics) {
+			super.setGenerics(kryo, generics);
+			valueGenericType = null;
+			if (generics != null && generics.length > 1 && generics[1] != null && kryo.isFinal(generics[1])) {
+				valueGenericType = generics[1];
+			}
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, Map map) {
+			Class valueType = valueGenericType;
+			valueGenericType = null;
+			Class<?> type = map.isEmpty() ? null : numberType(map.keySet().iterator().next());
+			long[] keys = type == null ? null : values(map.keySet(), type);
+			if (keys == null) {
+				output.writeVarInt(GENERIC, true);
+				super.write(kryo, output, map);
+				return;
+			}
+			super.setGenerics(kryo, null);
+			Map.Entry<?, ?>[] entries = (Map.Entry<?, ?>[]) map.entrySet().toArray(new Map.Entry<?, ?>[keys.length]);
+			if (unordered(map)) {
+				Arrays.sort(entries, BY_KEY);
+				for (int i = 0; i < entries.length; i++) {
+					keys[i] = ((Number) entries[i].getKey()).longValue();
+				}
+			}
+			writeNumbers(output, keys, type == Long.class);
+			Serializer valueSerializer = valueType == null ? null : kryo.getSerializer(valueType);
+			for (Map.Entry<?, ?> entry : entries) {
+				if (valueSerializer != null) {
+					kryo.writeObjectOrNull(output, entry.getValue(), valueSerializer);
+				} else {
+					kryo.writeClassAndObject(output, entry.getValue());
+				}
+			}
+		}
+
+		@Override
+		public Map read(Kryo kryo, Input input, Class<Map> type) {
+			Class valueType = valueGenericType;
+			valueGenericType = null;
+			int header = input.readVarInt(true);
+			if (header == GENERIC) {
+				return super.read(kryo, input, type);
+			}
+			super.setGenerics(kryo, null);
+			long[] keys = readNumbers(input, header);
+			Map map = newMap(kryo, type, keys.length);
+			kryo.reference(map);
+			Serializer valueSerializer = valueType == null ? null : kryo.getSerializer(valueType);
+			for (long key : keys) {
+				Object value = valueSerializer != null ? kryo.readObjectOrNull(input, valueType, valueSerializer) : kryo.readClassAndObject(input);
+				map.put(box(key, header), value);
+			}
+			return map;
+		}
+
+		protected Map newMap(Kryo kryo, Class<?> type, int size) {
+			if (type == HashMap.class) {
+				return new HashMap(capacity(size));
+			} else if (type == LinkedHashMap.class) {
+				return new LinkedHashMap(capacity(size));
+			}
+			return (Map) kryo.newInstance(type);
+		}
+	}
+
+	/**
+	 * int[] as zigzag varints of the values or of their deltas, whichever is smaller.
+	 */
+	public static class PackedIntArraySerializer extends Serializer<int[]> {
+		public PackedIntArraySerializer() {
+			super(true);
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, int[] array) {
+			if (array == null) {
+				// lengths are written + 1, 0 is null
+				output.writeVarInt(0, true);
+				return;
+			}
+			long plainBytes = 0;
+			long deltaBytes = 0;
+			int previous = 0;
+			for (int value : array) {
+				plainBytes += varLength(value);
+				deltaBytes += varLength(value - previous);
+				previous = value;
+			}
+			boolean delta = deltaBytes < plainBytes;
+			output.writeVarInt((array.length + 1) << 1 | (delta ? 1 : 0), true);
+			if (!delta) {
+				output.writeInts(array, false);
+				return;
+			}
+			previous = 0;
+			for (int value : array) {
+				output.writeVarInt(value - previous, false);
+				previous = value;
+			}
+		}
+
+		@Override
+		public int[] read(Kryo kryo, Input input, Class<int[]> type) {
+			int header = input.readVarInt(true);
+			if (header == 0) {
+				return null;
+			}
+			int length = (header >>> 1) - 1;
+			if ((header & 1) == 0) {
+				return input.readInts(length, false);
+			}
+			int[] array = new int[length];
+			int previous = 0;
+			for (int i = 0; i < length; i++) {
+				previous += input.readVarInt(false);
+				array[i] = previous;
+			}
+			return array;
+		}
+
+		@Override
+		public int[] copy(Kryo kryo, int[] original) {
+			return original.clone();
+		}
+	}
+
+	/**
+	 * long[] as zigzag varints of the values or of their deltas, whichever is smaller.
+	 */
+	public static class PackedLongArraySerializer extends Serializer<long[]> {
+		public PackedLongArraySerializer() {
+			super(true);
+		}
+
+		@Override
+		public void write(Kryo kryo, Output output, long[] array) {
+			if (array == null) {
+				// lengths are written + 1, 0 is null
+				output.writeVarInt(0, true);
+				return;
+			}
+			long plainBytes = 0;
+			long deltaBytes = 0;
+			long previous = 0;
+			for (long value : array) {
+				plainBytes += varLength(value);
+				deltaBytes += varLength(value - previous);
+				previous = value;
+			}
+			boolean delta = deltaBytes < plainBytes;
+			output.writeVarInt((array.length + 1) << 1 | (delta ? 1 : 0), true);
+			if (!delta) {
+				output.writeLongs(array, false);
+				return;
+			}
+			previous = 0;
+			for (long value : array) {
+				output.writeVarLong(value - previous, false);
+				previous = value;
+			}
+		}
+
+		@Override
+		public long[] read(Kryo kryo, Input input, Class<long[]> type) {
+			int header = input.readVarInt(true);
+			if (header == 0) {
+				return null;
+			}
+			int length = (header >>> 1) - 1;
+			if ((header & 1) == 0) {
+				return input.readLongs(length, false);
+			}
+			long[] array = new long[length];
+			long previous = 0;
+			for (int i = 0; i < length; i++) {
+				previous += input.readVarLong(false);
+				array[i] = previous;
+			}
+			return array;
+		}
+
+		@Override
+		public long[] copy(Kryo kryo, long[] original) {
+			return original.clone();
+		}
+	}
+}
@@ -0,0 +1,236 @@
+package com.kryo.serializer.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Streaming top-K of the most requested keys. One request in sampleRate is counted in a
+ * count-min sketch (depth 4); keys whose estimate beats the coldest of the capacity
+ * candidates take its slot. Memory is fixed, the hot path only does CAS and atomic adds.
+ * Windows rotate every windowMillis; getHotKeys covers the previous full window plus the
+ * current one, counts are scaled back by sampleRate.
+ */
+public class HotKeyTracker {
+
+	public static final int DEFAULT_CAPACITY = 32;
+	public static final int DEFAULT_WIDTH = 4096;
+	public static final long DEFAULT_WINDOW_MILLIS = 60000;
+	public static final int DEFAULT_SAMPLE_RATE = 16;
+
+	private static final int DEPTH = 4;
+
+	private final int capacity;
+	private final int width;
+	private final long windowMillis;
+	private final int sampleRate;
+
+	private final AtomicReference<Window> current;
+	private volatile Window previous;
+
+	public HotKeyTracker() {
+		this(DEFAULT_CAPACITY, DEFAULT_WIDTH, DEFAULT_WINDOW_MILLIS, DEFAULT_SAMPLE_RATE);
+	}
+
+	/**
+	 * @param width counters per sketch row, rounded up to a power of 2
+	 */
+	public HotKeyTracker(int capacity, int width, long windowMillis, int sampleRate) {
+		this.capacity = capacity;
+		this.width = Integer.highestOneBit(Math.max(1, width - 1)) << 1;
+		this.windowMillis = windowMillis;
+		this.sampleRate = Math.max(1, sampleRate);
+		this.current = new AtomicReference<Window>(new Window(System.currentTimeMillis()));
+	}
+
+	/**
+	 * True for the requests to record, one in sampleRate.
+	 */
+	public boolean sample() {
+		return sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0;
+	}
+
+	/**
+	 * Count a sampled request, size is the value size in bytes or -1 when unknown.
+	 */
+	public void record(String key, int size) {
+		Window window = window();
+		window.offer(key, window.add(key), size);
+	}
+
+	/**
+	 * Hottest keys, most requested first.
+	 */
+	public List<HotKey> getHotKeys() {
+		Window now = window();
+		Window before = previous;
+		Map<String, HotKey> merged = new HashMap<String, HotKey>();
+		for (Window window : before == null ? Collections.singletonList(now) : Arrays.asList(before, now)) {
+			for (int i = 0; i < capacity; i++) {
+				Candidate candidate = window.top.get(i);
+				if (candidate == null || merged.containsKey(candidate.key)) {
+					continue;
+				}
+				long count = now.estimate(candidate.key) + (before == null ? 0 : before.estimate(candidate.key));
+				Candidate latest = now.find(candidate.key);
+				int size = latest != null && latest.size >= 0 ? latest.size : candidate.size;
+				merged.put(candidate.key, new HotKey(candidate.key, count * sampleRate, size));
+			}
+		}
+		List<HotKey> hotKeys = new ArrayList<HotKey>(merged.values());
+		Collections.sort(hotKeys, new Comparator<HotKey>() {
+			@Override
+			public int compare(HotKey a, HotKey b) {
+				return Long.compare(b.count, a.count);
+			}
+		});
+		return hotKeys.size() > capacity ? new ArrayList<HotKey>(hotKeys.subList(0, capacity)) : hotKeys;
+	}
+
+	private Window window() {
+		Window window = current.get();
+		long now = System.currentTimeMillis();
+		if (now - window.start >= windowMillis) {
+			Window next = new Window(now);
+			if (current.compareAndSet(window, next)) {
+				// a window idle for longer than windowMillis has nothing recent to report
+				previous = now - window.start < 2 * windowMillis ? window : null;
+				return next;
+			}
+			return current.get();
+		}
+		return window;
+	}
+
+	private static int hash(String key, int row) {
+		int h = key.hashCode() + row * 0x9E3779B9;
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	private final class Window {
+		final long start;
+		final AtomicLongArray sketch = new AtomicLongArray(DEPTH * width);
+		final AtomicReferenceArray<Candidate> top = new AtomicReferenceArray<Candidate>(capacity);
+
+		Window(long start) {
+			this.start = start;
+		}
+
+		long add(String key) {
+			long min = Long.MAX_VALUE;
+			for (int row = 0; row < DEPTH; row++) {
+				min = Math.min(min, sketch.incrementAndGet(row * width + (hash(key, row) & (width - 1))));
+			}
+			return min;
+		}
+
+		long estimate(String key) {
+			long min = Long.MAX_VALUE;
+			for (int row = 0; row < DEPTH; row++) {
+				min = Math.min(min, sketch.get(row * width + (hash(key, row) & (width - 1))));
+			}
+			return min;
+		}
+
+		Candidate find(String key) {
+			for (int i = 0; i < capacity; i++) {
+				Candidate candidate = top.get(i);
+				if (candidate != null && candidate.key.equals(key)) {
+					return candidate;
+				}
+			}
+			return null;
+		}
+
+		void offer(String key, long estimate, int size) {
+			int coldest = -1;
+			long coldestCount = Long.MAX_VALUE;
+			for (int i = 0; i < capacity; i++) {
+				Candidate candidate = top.get(i);
+				if (candidate == null) {
+					if (top.compareAndSet(i, null, new Candidate(key, estimate, size))) {
+						return;
+					}
+					candidate = top.get(i);
+				}
+				if (candidate.key.equals(key)) {
+					candidate.count = estimate;
+					if (size >= 0) {
+						candidate.size = size;
+					}
+					return;
+				}
+				if (candidate.count < coldestCount) {
+					coldest = i;
+					coldestCount = candidate.count;
+				}
+			}
+			if (coldest >= 0 && estimate > coldestCount) {
+				Candidate candidate = top.get(coldest);
+				if (candidate.count == coldestCount) {
+					top.compareAndSet(coldest, candidate, new Candidate(key, estimate, size));
+				}
+			}
+		}
+	}
+
+	private static final class Candidate {
+		final String key;
+		volatile long count;
+		volatile int size;
+
+		Candidate(String key, long count, int size) {
+			this.key = key;
+			this.count = count;
+			this.size = size;
+		}
+	}
+
+	public static final class HotKey {
+		private final String key;
+		private final long count;
+		private final int size;
+
+		HotKey(String key, long count, int size) {
+			this.key = key;
+			this.count = count;
+			this.size = size;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * Estimated requests over the reported windows.
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * Last seen value size in bytes, -1 when unknown.
+		 */
+		public int getSize() {
+			return size;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s count=%d size=%d", key, count, size);
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package com.kryo.serializer.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Named striped counters and histograms. Components look their metrics up once and keep
+ * them in fields, the hot path only touches LongAdders and atomic arrays. Read through
+ * the pull API (getCounters / getHistograms) or JMX once registered.
+ */
+public class Metrics implements MetricsMXBean {
+
+	public static final String DOMAIN = "com.kryo.serializer";
+
+	private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<String, LongAdder>();
+	private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+
+	public LongAdder counter(String name) {
+		LongAdder counter = counters.get(name);
+		if (counter == null) {
+			LongAdder created = new LongAdder();
+			counter = counters.putIfAbsent(name, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+
+	public Histogram histogram(String name) {
+		Histogram histogram = histograms.get(name);
+		if (histogram == null) {
+			Histogram created = new Histogram();
+			histogram = histograms.putIfAbsent(name, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+		return histogram;
+	}
+
+	@Override
+	public Map<String, Long> getCounters() {
+		Map<String, Long> values = new TreeMap<String, Long>();
+		for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+			values.put(entry.getKey(), entry.getValue().sum());
+		}
+		return values;
+	}
+
+	@Override
+	public Map<String, Snapshot> getHistograms() {
+		Map<String, Snapshot> values = new TreeMap<String, Snapshot>();
+		for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+			values.put(entry.getKey(), entry.getValue().snapshot());
+		}
+		return values;
+	}
+
+	@Override
+	public void reset() {
+		for (LongAdder counter : counters.values()) {
+			counter.reset();
+		}
+		for (Histogram histogram : histograms.values()) {
+			histogram.reset();
+		}
+	}
+
+	/**
+	 * Export on the platform MBeanServer as com.kryo.serializer:type=type,name=name.
+	 */
+	public ObjectName register(String type, String name) {
+		try {
+			ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+			server.registerMBean(this, objectName);
+			return objectName;
+		} catch (JMException e) {
+			throw new IllegalStateException(String.format("Metrics : can't register %s %s", type, name), e);
+		}
+	}
+
+	public void unregister(ObjectName objectName) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+		} catch (JMException e) {
+			throw new IllegalStateException(String.format("Metrics : can't unregister %s", objectName), e);
+		}
+	}
+}
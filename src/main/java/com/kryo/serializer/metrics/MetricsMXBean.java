@@ -0,0 +1,15 @@
+package com.kryo.serializer.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of a Metrics registry.
+ */
+public interface MetricsMXBean {
+
+	Map<String, Long> getCounters();
+
+	Map<String, Snapshot> getHistograms();
+
+	void reset();
+}
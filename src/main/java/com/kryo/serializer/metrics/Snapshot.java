@@ -0,0 +1,61 @@
+package com.kryo.serializer.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Point in time view of a Histogram, exported as CompositeData over JMX.
+ */
+public class Snapshot {
+
+	private final long count;
+	private final double mean;
+	private final long max;
+	private final long p50;
+	private final long p90;
+	private final long p99;
+	private final long p999;
+
+	@ConstructorProperties({ "count", "mean", "max", "p50", "p90", "p99", "p999" })
+	public Snapshot(long count, double mean, long max, long p50, long p90, long p99, long p999) {
+		this.count = count;
+		this.mean = mean;
+		this.max = max;
+		this.p50 = p50;
+		this.p90 = p90;
+		this.p99 = p99;
+		this.p999 = p999;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public long getP50() {
+		return p50;
+	}
+
+	public long getP90() {
+		return p90;
+	}
+
+	public long getP99() {
+		return p99;
+	}
+
+	public long getP999() {
+		return p999;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%.1f p50=%d p90=%d p99=%d p999=%d max=%d", count, mean, p50, p90, p99, p999, max);
+	}
+}
@@ -0,0 +1,254 @@
+package com.kryo.serializer.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.kryo.serializer.server.ItemStore.Item;
+
+/**
+ * Memcached binary protocol : get, getk and their quiet forms, set, add, replace, delete,
+ * increment, decrement (quiet forms too), touch, flush, noop, version, stat and quit.
+ */
+final class BinaryProtocol {
+
+	static final byte REQUEST = (byte) 0x80;
+
+	private static final byte RESPONSE = (byte) 0x81;
+	private static final int HEADER_LENGTH = 24;
+
+	private static final int GET = 0x00;
+	private static final int SET = 0x01;
+	private static final int ADD = 0x02;
+	private static final int REPLACE = 0x03;
+	private static final int DELETE = 0x04;
+	private static final int INCREMENT = 0x05;
+	private static final int DECREMENT = 0x06;
+	private static final int QUIT = 0x07;
+	private static final int FLUSH = 0x08;
+	private static final int GETQ = 0x09;
+	private static final int NOOP = 0x0a;
+	private static final int VERSION = 0x0b;
+	private static final int GETK = 0x0c;
+	private static final int GETKQ = 0x0d;
+	private static final int STAT = 0x10;
+	private static final int SETQ = 0x11;
+	private static final int ADDQ = 0x12;
+	private static final int REPLACEQ = 0x13;
+	private static final int DELETEQ = 0x14;
+	private static final int INCREMENTQ = 0x15;
+	private static final int DECREMENTQ = 0x16;
+	private static final int QUITQ = 0x17;
+	private static final int FLUSHQ = 0x18;
+	private static final int TOUCH = 0x1c;
+
+	private static final short SUCCESS = 0x00;
+	private static final short KEY_NOT_FOUND = 0x01;
+	private static final short KEY_EXISTS = 0x02;
+	private static final short VALUE_TOO_LARGE = 0x03;
+	private static final short INVALID_ARGUMENTS = 0x04;
+	private static final short NON_NUMERIC = 0x06;
+	private static final short UNKNOWN_COMMAND = 0x81;
+
+	/** incr/decr expiration meaning the counter must not be created */
+	private static final int NO_CREATE = 0xffffffff;
+
+	private static final byte[] EMPTY = new byte[0];
+
+	private BinaryProtocol() {
+	}
+
+	/**
+	 * Handle the request at the position of in, false when it isn't complete yet.
+	 */
+	static boolean handle(ByteBuffer in, ItemStore store, Connection connection) {
+		if (in.remaining() < HEADER_LENGTH) {
+			return false;
+		}
+		int start = in.position();
+		int bodyLength = in.getInt(start + 8);
+		if (in.get(start) != REQUEST || bodyLength < 0) {
+			connection.close();
+			in.position(in.limit());
+			return true;
+		}
+		int opcode = in.get(start + 1) & 0xFF;
+		int keyLength = in.getShort(start + 2) & 0xFFFF;
+		int extrasLength = in.get(start + 4) & 0xFF;
+		int opaque = in.getInt(start + 12);
+		if (bodyLength < extrasLength + keyLength) {
+			connection.close();
+			in.position(in.limit());
+			return true;
+		}
+		if (bodyLength - extrasLength - keyLength > connection.getMaxItemSize()) {
+			// not buffered, dropped as it arrives
+			in.position(start + HEADER_LENGTH);
+			connection.swallow(bodyLength);
+			new Request(connection, opcode, opaque).reply(VALUE_TOO_LARGE, "Too large");
+			return true;
+		}
+		if (in.remaining() < HEADER_LENGTH + bodyLength) {
+			return false;
+		}
+		long cas = in.getLong(start + 16);
+		in.position(start + HEADER_LENGTH);
+		ByteBuffer extras = slice(in, extrasLength);
+		byte[] keyBytes = new byte[keyLength];
+		in.get(keyBytes);
+		String key = new String(keyBytes, StandardCharsets.US_ASCII);
+		byte[] value = new byte[bodyLength - extrasLength - keyLength];
+		in.get(value);
+		Request request = new Request(connection, opcode, opaque);
+
+		switch (opcode) {
+		case GET:
+		case GETQ:
+		case GETK:
+		case GETKQ: {
+			Item item = store.get(key);
+			boolean withKey = opcode == GETK || opcode == GETKQ;
+			if (item != null) {
+				request.reply(SUCCESS, item.cas, ByteBuffer.allocate(4).putInt(item.flags).array(), withKey ? keyBytes : EMPTY, item.data);
+			} else if (opcode == GET || opcode == GETK) {
+				request.reply(KEY_NOT_FOUND, 0, EMPTY, withKey ? keyBytes : EMPTY, "Not found");
+			}
+			break;
+		}
+		case SET:
+		case ADD:
+		case REPLACE:
+		case SETQ:
+		case ADDQ:
+		case REPLACEQ: {
+			if (extrasLength != 8) {
+				request.reply(INVALID_ARGUMENTS, "Invalid arguments");
+				break;
+			}
+			if (value.length > connection.getMaxItemSize()) {
+				request.reply(VALUE_TOO_LARGE, "Too large");
+				break;
+			}
+			int mode = opcode == ADD || opcode == ADDQ ? ItemStore.ADD : opcode == REPLACE || opcode == REPLACEQ ? ItemStore.REPLACE : ItemStore.SET;
+			int status = store.store(mode, key, extras.getInt(0), extras.getInt(4), value, cas);
+			if (status == ItemStore.STORED) {
+				if (opcode < SETQ) {
+					request.reply(SUCCESS, store.get(key).cas, EMPTY, EMPTY, EMPTY);
+				}
+			} else if (status == ItemStore.NOT_FOUND || mode == ItemStore.REPLACE) {
+				request.reply(KEY_NOT_FOUND, "Not found");
+			} else {
+				request.reply(KEY_EXISTS, "Data exists for key");
+			}
+			break;
+		}
+		case DELETE:
+		case DELETEQ:
+			if (!store.delete(key)) {
+				request.reply(KEY_NOT_FOUND, "Not found");
+			} else if (opcode == DELETE) {
+				request.reply(SUCCESS, "");
+			}
+			break;
+		case INCREMENT:
+		case DECREMENT:
+		case INCREMENTQ:
+		case DECREMENTQ: {
+			if (extrasLength != 20) {
+				request.reply(INVALID_ARGUMENTS, "Invalid arguments");
+				break;
+			}
+			Item item;
+			try {
+				item = store.incr(key, extras.getLong(0), opcode == DECREMENT || opcode == DECREMENTQ);
+			} catch (NumberFormatException e) {
+				request.reply(NON_NUMERIC, "Non-numeric server-side value for incr or decr");
+				break;
+			}
+			if (item == null) {
+				int exptime = extras.getInt(16);
+				if (exptime == NO_CREATE) {
+					request.reply(KEY_NOT_FOUND, "Not found");
+					break;
+				}
+				item = store.create(key, extras.getLong(8), exptime);
+			}
+			if (opcode == INCREMENT || opcode == DECREMENT) {
+				request.reply(SUCCESS, item.cas, EMPTY, EMPTY, ByteBuffer.allocate(8).putLong(item.counter()).array());
+			}
+			break;
+		}
+		case TOUCH:
+			if (extrasLength != 4) {
+				request.reply(INVALID_ARGUMENTS, "Invalid arguments");
+			} else if (store.touch(key, extras.getInt(0))) {
+				request.reply(SUCCESS, "");
+			} else {
+				request.reply(KEY_NOT_FOUND, "Not found");
+			}
+			break;
+		case FLUSH:
+		case FLUSHQ:
+			store.flush();
+			if (opcode == FLUSH) {
+				request.reply(SUCCESS, "");
+			}
+			break;
+		case NOOP:
+			request.reply(SUCCESS, "");
+			break;
+		case VERSION:
+			request.reply(SUCCESS, EmbeddedMemcached.VERSION);
+			break;
+		case STAT:
+			// no statistics, only the terminating empty stat
+			request.reply(SUCCESS, "");
+			break;
+		case QUIT:
+		case QUITQ:
+			if (opcode == QUIT) {
+				request.reply(SUCCESS, "");
+			}
+			connection.close();
+			break;
+		default:
+			request.reply(UNKNOWN_COMMAND, "Unknown command");
+		}
+		return true;
+	}
+
+	private static ByteBuffer slice(ByteBuffer in, int length) {
+		ByteBuffer slice = in.slice();
+		slice.limit(length);
+		in.position(in.position() + length);
+		return slice;
+	}
+
+	private static final class Request {
+		final Connection connection;
+		final int opcode;
+		final int opaque;
+
+		Request(Connection connection, int opcode, int opaque) {
+			this.connection = connection;
+			this.opcode = opcode;
+			this.opaque = opaque;
+		}
+
+		void reply(short status, String message) {
+			reply(status, 0, EMPTY, EMPTY, message);
+		}
+
+		void reply(short status, long cas, byte[] extras, byte[] key, String message) {
+			reply(status, cas, extras, key, message.getBytes(StandardCharsets.US_ASCII));
+		}
+
+		void reply(short status, long cas, byte[] extras, byte[] key, byte[] value) {
+			ByteBuffer response = ByteBuffer.allocate(HEADER_LENGTH + extras.length + key.length + value.length);
+			response.put(RESPONSE).put((byte) opcode).putShort((short) key.length).put((byte) extras.length).put((byte) 0)
+					.putShort(status).putInt(extras.length + key.length + value.length).putInt(opaque).putLong(cas)
+					.put(extras).put(key).put(value);
+			response.flip();
+			connection.reply(response);
+		}
+	}
+}
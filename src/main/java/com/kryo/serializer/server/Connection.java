@@ -0,0 +1,140 @@
+package com.kryo.serializer.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A client connection of the embedded server, used by the selector thread only. The protocol
+ * is chosen by the first byte received. Replies are queued in order, each due after the
+ * injected latency, plus the retransmit delay for the ones picked as lost : like TCP, a late
+ * reply holds the following ones back.
+ */
+final class Connection {
+
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+	private final EmbeddedMemcached server;
+	private final SocketChannel channel;
+	private final SelectionKey key;
+	private final ArrayDeque<Reply> replies = new ArrayDeque<Reply>();
+	private ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+	private Boolean binary;
+	private boolean closing;
+	/** bytes of a rejected request still to drop */
+	private long swallow;
+
+	Connection(EmbeddedMemcached server, SocketChannel channel, SelectionKey key) {
+		this.server = server;
+		this.channel = channel;
+		this.key = key;
+	}
+
+	int getMaxItemSize() {
+		return server.getMaxItemSize();
+	}
+
+	/**
+	 * Read what is available and handle the complete commands.
+	 */
+	void read() throws IOException {
+		if (!in.hasRemaining()) {
+			ByteBuffer grown = ByteBuffer.allocate(in.capacity() * 2);
+			in.flip();
+			in = grown.put(in);
+		}
+		if (channel.read(in) < 0) {
+			closing = true;
+			return;
+		}
+		in.flip();
+		if (binary == null && in.hasRemaining()) {
+			binary = in.get(0) == BinaryProtocol.REQUEST;
+		}
+		ItemStore store = server.getStore();
+		while (in.hasRemaining() && !closing) {
+			if (swallow > 0) {
+				int skipped = (int) Math.min(swallow, in.remaining());
+				in.position(in.position() + skipped);
+				swallow -= skipped;
+			} else if (!(binary ? BinaryProtocol.handle(in, store, this) : TextProtocol.handle(in, store, this))) {
+				break;
+			}
+		}
+		in.compact();
+	}
+
+	/**
+	 * Drop the next bytes read, the data of a request rejected from its header.
+	 */
+	void swallow(long bytes) {
+		swallow += bytes;
+	}
+
+	void reply(ByteBuffer reply) {
+		long due = System.nanoTime() + server.getLatencyNanos();
+		double lossRate = server.getLossRate();
+		if (lossRate > 0 && ThreadLocalRandom.current().nextDouble() < lossRate) {
+			due += server.getRetransmitDelayNanos();
+		}
+		Reply last = replies.peekLast();
+		replies.add(new Reply(reply, last == null ? due : Math.max(due, last.due)));
+	}
+
+	/**
+	 * Stop reading, the queued replies are still sent.
+	 */
+	void close() {
+		closing = true;
+	}
+
+	/**
+	 * Write the due replies, returns when the next one is due or Long.MAX_VALUE when none is
+	 * queued or the socket is full (OP_WRITE then wakes the selector).
+	 */
+	long write(long now) throws IOException {
+		Reply reply;
+		while ((reply = replies.peek()) != null && reply.due <= now) {
+			channel.write(reply.buffer);
+			if (reply.buffer.hasRemaining()) {
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+				return Long.MAX_VALUE;
+			}
+			replies.poll();
+		}
+		key.interestOps(closing ? 0 : SelectionKey.OP_READ);
+		return reply == null ? Long.MAX_VALUE : reply.due;
+	}
+
+	/**
+	 * Drop the queued replies, the peer is gone.
+	 */
+	void clear() {
+		replies.clear();
+	}
+
+	boolean isClosed() {
+		return closing && replies.isEmpty();
+	}
+
+	void release() {
+		key.cancel();
+		try {
+			channel.close();
+		} catch (IOException e) {
+		}
+	}
+
+	private static final class Reply {
+		final ByteBuffer buffer;
+		final long due;
+
+		Reply(ByteBuffer buffer, long due) {
+			this.buffer = buffer;
+			this.due = due;
+		}
+	}
+}
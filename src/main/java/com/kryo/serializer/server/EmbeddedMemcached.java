@@ -0,0 +1,233 @@
+package com.kryo.serializer.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+/**
+ * In-process memcached stand-in for end-to-end tests and benchmarks, speaking the text and
+ * binary protocols (get, gets, multi-get, set, add, replace, cas, delete, incr, decr, touch)
+ * with flags and expiry. One selector thread serves every connection on a loopback
+ * ephemeral port. Latency and packet loss can be injected : a lost reply is sent after the
+ * retransmit delay, as TCP would, holding the next replies of its connection back.
+ */
+public class EmbeddedMemcached implements Closeable {
+
+	static final Logger LOGGER = LogManager.getLogger(EmbeddedMemcached.class);
+
+	static final String VERSION = "1.6.0-embedded";
+	static final int MAX_KEY_LENGTH = 250;
+
+	public static final int DEFAULT_MAX_ITEM_SIZE = 1024 * 1024;
+	public static final long DEFAULT_RETRANSMIT_DELAY_MILLIS = 200;
+
+	private final ItemStore store = new ItemStore();
+	private final List<Connection> connections = new ArrayList<Connection>();
+	private volatile int maxItemSize = DEFAULT_MAX_ITEM_SIZE;
+	private volatile long latencyNanos;
+	private volatile double lossRate;
+	private volatile long retransmitDelayNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_RETRANSMIT_DELAY_MILLIS);
+
+	private Selector selector;
+	private ServerSocketChannel serverChannel;
+	private Thread thread;
+	private volatile boolean running;
+
+	/**
+	 * Listen on an ephemeral loopback port, see getAddress.
+	 */
+	public synchronized EmbeddedMemcached start() throws IOException {
+		if (running) {
+			return this;
+		}
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		running = true;
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				serve();
+			}
+		}, "embedded-memcached-" + getPort());
+		thread.setDaemon(true);
+		thread.start();
+		LOGGER.info(String.format("EmbeddedMemcached listening on %s", getAddress()));
+		return this;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		selector.wakeup();
+		try {
+			thread.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Address in the host:port form SpyMemcached takes.
+	 */
+	public String getAddress() {
+		return InetAddress.getLoopbackAddress().getHostAddress() + ":" + getPort();
+	}
+
+	/**
+	 * Delay added to every reply, with the millisecond resolution of the selector.
+	 */
+	public EmbeddedMemcached setLatency(long latency, TimeUnit unit) {
+		this.latencyNanos = unit.toNanos(latency);
+		return this;
+	}
+
+	long getLatencyNanos() {
+		return latencyNanos;
+	}
+
+	/**
+	 * Share of the replies lost once and retransmitted, between 0 and 1.
+	 */
+	public EmbeddedMemcached setLossRate(double lossRate) {
+		this.lossRate = lossRate;
+		return this;
+	}
+
+	double getLossRate() {
+		return lossRate;
+	}
+
+	public EmbeddedMemcached setRetransmitDelay(long delay, TimeUnit unit) {
+		this.retransmitDelayNanos = unit.toNanos(delay);
+		return this;
+	}
+
+	long getRetransmitDelayNanos() {
+		return retransmitDelayNanos;
+	}
+
+	/**
+	 * Largest value accepted, larger ones are refused like memcached does.
+	 */
+	public EmbeddedMemcached setMaxItemSize(int maxItemSize) {
+		this.maxItemSize = maxItemSize;
+		return this;
+	}
+
+	public int getMaxItemSize() {
+		return maxItemSize;
+	}
+
+	ItemStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Items stored, expired ones included until they are read.
+	 */
+	public int size() {
+		return store.size();
+	}
+
+	public void flush() {
+		store.flush();
+	}
+
+	private void serve() {
+		try {
+			while (running) {
+				long now = System.nanoTime();
+				long next = Long.MAX_VALUE;
+				for (Iterator<Connection> it = connections.iterator(); it.hasNext();) {
+					Connection connection = it.next();
+					try {
+						next = Math.min(next, connection.write(now));
+					} catch (IOException e) {
+						connection.close();
+						connection.clear();
+					}
+					if (connection.isClosed()) {
+						connection.release();
+						it.remove();
+					}
+				}
+				if (next == Long.MAX_VALUE) {
+					selector.select();
+				} else if (next <= now) {
+					selector.selectNow();
+				} else {
+					selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(next - now + 999999)));
+				}
+				for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();) {
+					SelectionKey key = it.next();
+					it.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+					} else if (key.isReadable()) {
+						Connection connection = (Connection) key.attachment();
+						try {
+							connection.read();
+						} catch (IOException e) {
+							connection.close();
+							connection.clear();
+						} catch (RuntimeException e) {
+							// a bad request only drops its connection, not the selector thread
+							LOGGER.warn(String.format("EmbeddedMemcached %s dropped a connection : %s", getAddress(), e));
+							connection.close();
+							connection.clear();
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.error(String.format("EmbeddedMemcached %s stopped : %s", getAddress(), e.getMessage()));
+		} finally {
+			for (Connection connection : connections) {
+				connection.release();
+			}
+			connections.clear();
+			try {
+				serverChannel.close();
+				selector.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = serverChannel.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+			Connection connection = new Connection(this, channel, key);
+			key.attach(connection);
+			connections.add(connection);
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package com.kryo.serializer.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Items of the embedded server with memcached expiry semantics : 0 never expires, up to
+ * 30 days is relative seconds, above is a unix time, negative is already expired.
+ * Expired items are removed when read.
+ */
+final class ItemStore {
+
+	static final int STORED = 0;
+	static final int NOT_STORED = 1;
+	static final int EXISTS = 2;
+	static final int NOT_FOUND = 3;
+
+	static final int SET = 0;
+	static final int ADD = 1;
+	static final int REPLACE = 2;
+
+	private static final int RELATIVE_EXPIRY_MAX = 60 * 60 * 24 * 30;
+
+	private final Map<String, Item> items = new ConcurrentHashMap<String, Item>();
+	private final AtomicLong casSequence = new AtomicLong();
+
+	Item get(String key) {
+		Item item = items.get(key);
+		if (item != null && item.isExpired(System.currentTimeMillis())) {
+			items.remove(key, item);
+			return null;
+		}
+		return item;
+	}
+
+	/**
+	 * Store with the semantics of mode, checking cas when it isn't 0.
+	 */
+	int store(int mode, String key, int flags, int exptime, byte[] data, long cas) {
+		Item current = get(key);
+		if (cas != 0) {
+			if (current == null) {
+				return NOT_FOUND;
+			}
+			if (current.cas != cas) {
+				return EXISTS;
+			}
+		} else if (mode == ADD && current != null || mode == REPLACE && current == null) {
+			return NOT_STORED;
+		}
+		items.put(key, new Item(flags, expiresAt(exptime), casSequence.incrementAndGet(), data));
+		return STORED;
+	}
+
+	boolean delete(String key) {
+		return get(key) != null && items.remove(key) != null;
+	}
+
+	boolean touch(String key, int exptime) {
+		Item item = get(key);
+		if (item == null) {
+			return false;
+		}
+		items.put(key, new Item(item.flags, expiresAt(exptime), casSequence.incrementAndGet(), item.data));
+		return true;
+	}
+
+	/**
+	 * New value of an unsigned 64 bit counter, decr stops at 0 and incr wraps. Null when key is missing.
+	 * @throws NumberFormatException when the value isn't a counter
+	 */
+	Item incr(String key, long delta, boolean decr) {
+		Item item = get(key);
+		if (item == null) {
+			return null;
+		}
+		long value = item.counter();
+		if (decr) {
+			value = Long.compareUnsigned(value, delta) < 0 ? 0 : value - delta;
+		} else {
+			value += delta;
+		}
+		Item updated = new Item(item.flags, item.expiresAt, casSequence.incrementAndGet(),
+				Long.toUnsignedString(value).getBytes(StandardCharsets.US_ASCII));
+		items.put(key, updated);
+		return updated;
+	}
+
+	Item create(String key, long initial, int exptime) {
+		Item item = new Item(0, expiresAt(exptime), casSequence.incrementAndGet(), Long.toUnsignedString(initial).getBytes(StandardCharsets.US_ASCII));
+		items.put(key, item);
+		return item;
+	}
+
+	void flush() {
+		items.clear();
+	}
+
+	int size() {
+		return items.size();
+	}
+
+	private static long expiresAt(int exptime) {
+		if (exptime == 0) {
+			return 0;
+		}
+		if (exptime < 0) {
+			return 1;
+		}
+		if (exptime <= RELATIVE_EXPIRY_MAX) {
+			return System.currentTimeMillis() + exptime * 1000L;
+		}
+		return exptime * 1000L;
+	}
+
+	static final class Item {
+		final int flags;
+		final long expiresAt;
+		final long cas;
+		final byte[] data;
+
+		Item(int flags, long expiresAt, long cas, byte[] data) {
+			this.flags = flags;
+			this.expiresAt = expiresAt;
+			this.cas = cas;
+			this.data = data;
+		}
+
+		boolean isExpired(long now) {
+			return expiresAt != 0 && expiresAt <= now;
+		}
+
+		/**
+		 * Counter value, the data being its decimal form.
+		 */
+		long counter() {
+			return Long.parseUnsignedLong(new String(data, StandardCharsets.US_ASCII).trim());
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package com.kryo.serializer.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.kryo.serializer.server.ItemStore.Item;
+
+/**
+ * Memcached text protocol : get, gets, set, add, replace, cas, delete, incr, decr, touch,
+ * flush_all, version, verbosity and quit.
+ */
+final class TextProtocol {
+
+	private static final int MAX_LINE = 2048;
+	private static final byte[] CRLF = { '\r', '\n' };
+
+	private TextProtocol() {
+	}
+
+	/**
+	 * Handle the command at the position of in, false when it isn't complete yet.
+	 */
+	static boolean handle(ByteBuffer in, ItemStore store, Connection connection) {
+		int start = in.position();
+		int end = lineEnd(in);
+		if (end < 0) {
+			if (in.remaining() > MAX_LINE) {
+				connection.reply(line("CLIENT_ERROR line too long"));
+				connection.close();
+			}
+			return false;
+		}
+		String[] tokens = new String(in.array(), in.arrayOffset() + start, end - start, StandardCharsets.US_ASCII).trim().split(" +");
+		in.position(end + 2);
+		String command = tokens[0];
+		try {
+			switch (command) {
+			case "get":
+			case "gets":
+				get(tokens, store, connection, "gets".equals(command));
+				return true;
+			case "set":
+			case "add":
+			case "replace":
+			case "cas":
+				if (!store(in, tokens, store, connection)) {
+					in.position(start);
+					return false;
+				}
+				return true;
+			case "delete":
+				reply(connection, tokens, 2, store.delete(key(tokens[1])) ? "DELETED" : "NOT_FOUND");
+				return true;
+			case "incr":
+			case "decr":
+				incr(tokens, store, connection, "decr".equals(command));
+				return true;
+			case "touch":
+				reply(connection, tokens, 3, store.touch(key(tokens[1]), Integer.parseInt(tokens[2])) ? "TOUCHED" : "NOT_FOUND");
+				return true;
+			case "flush_all":
+				store.flush();
+				reply(connection, tokens, tokens.length - 1, "OK");
+				return true;
+			case "version":
+				connection.reply(line("VERSION " + EmbeddedMemcached.VERSION));
+				return true;
+			case "verbosity":
+				reply(connection, tokens, tokens.length - 1, "OK");
+				return true;
+			case "quit":
+				connection.close();
+				return true;
+			default:
+				connection.reply(line("ERROR"));
+				return true;
+			}
+		} catch (RuntimeException e) {
+			// bad arguments : the data block of a storage command, if any, is read as a command
+			connection.reply(line("CLIENT_ERROR bad command line format"));
+			return true;
+		}
+	}
+
+	private static void get(String[] tokens, ItemStore store, Connection connection, boolean cas) {
+		int size = 5;
+		Item[] items = new Item[tokens.length];
+		for (int i = 1; i < tokens.length; i++) {
+			items[i] = store.get(key(tokens[i]));
+			if (items[i] != null) {
+				size += 64 + tokens[i].length() + items[i].data.length;
+			}
+		}
+		ByteBuffer reply = ByteBuffer.allocate(size);
+		for (int i = 1; i < tokens.length; i++) {
+			Item item = items[i];
+			if (item != null) {
+				String header = "VALUE " + tokens[i] + " " + Integer.toUnsignedString(item.flags) + " " + item.data.length
+						+ (cas ? " " + item.cas : "");
+				reply.put(header.getBytes(StandardCharsets.US_ASCII)).put(CRLF).put(item.data).put(CRLF);
+			}
+		}
+		reply.put("END".getBytes(StandardCharsets.US_ASCII)).put(CRLF);
+		reply.flip();
+		connection.reply(reply);
+	}
+
+	/**
+	 * False when the data block isn't complete yet.
+	 */
+	private static boolean store(ByteBuffer in, String[] tokens, ItemStore store, Connection connection) {
+		boolean cas = "cas".equals(tokens[0]);
+		String key = key(tokens[1]);
+		int flags = Integer.parseUnsignedInt(tokens[2]);
+		int exptime = Integer.parseInt(tokens[3]);
+		int length = Integer.parseInt(tokens[4]);
+		long unique = cas ? Long.parseLong(tokens[5]) : 0;
+		if (length < 0) {
+			throw new IllegalArgumentException("Negative length");
+		}
+		if (length > connection.getMaxItemSize()) {
+			// like memcached, the data block is swallowed rather than buffered
+			connection.swallow(length + 2L);
+			reply(connection, tokens, cas ? 6 : 5, "SERVER_ERROR object too large for cache");
+			return true;
+		}
+		if (in.remaining() < length + 2) {
+			return false;
+		}
+		byte[] data = new byte[length];
+		in.get(data);
+		if (in.get() != '\r' || in.get() != '\n') {
+			connection.reply(line("CLIENT_ERROR bad data chunk"));
+			return true;
+		}
+		int mode = "add".equals(tokens[0]) ? ItemStore.ADD : "replace".equals(tokens[0]) ? ItemStore.REPLACE : ItemStore.SET;
+		String status;
+		switch (store.store(mode, key, flags, exptime, data, unique)) {
+		case ItemStore.STORED:
+			status = "STORED";
+			break;
+		case ItemStore.EXISTS:
+			status = "EXISTS";
+			break;
+		case ItemStore.NOT_FOUND:
+			status = "NOT_FOUND";
+			break;
+		default:
+			status = "NOT_STORED";
+		}
+		reply(connection, tokens, cas ? 6 : 5, status);
+		return true;
+	}
+
+	private static void incr(String[] tokens, ItemStore store, Connection connection, boolean decr) {
+		long delta = Long.parseUnsignedLong(tokens[2]);
+		try {
+			Item item = store.incr(key(tokens[1]), delta, decr);
+			reply(connection, tokens, 3, item == null ? "NOT_FOUND" : new String(item.data, StandardCharsets.US_ASCII));
+		} catch (NumberFormatException e) {
+			connection.reply(line("CLIENT_ERROR cannot increment or decrement non-numeric value"));
+		}
+	}
+
+	private static String key(String key) {
+		if (key.length() > EmbeddedMemcached.MAX_KEY_LENGTH) {
+			throw new IllegalArgumentException("Key too long");
+		}
+		return key;
+	}
+
+	/**
+	 * Reply status unless the token at noreplyIndex is noreply.
+	 */
+	private static void reply(Connection connection, String[] tokens, int noreplyIndex, String status) {
+		if (tokens.length <= noreplyIndex || !"noreply".equals(tokens[noreplyIndex])) {
+			connection.reply(line(status));
+		}
+	}
+
+	private static ByteBuffer line(String line) {
+		return ByteBuffer.wrap((line + "\r\n").getBytes(StandardCharsets.US_ASCII));
+	}
+
+	private static int lineEnd(ByteBuffer in) {
+		byte[] array = in.array();
+		int offset = in.arrayOffset();
+		for (int i = in.position(); i < in.limit() - 1; i++) {
+			if (array[offset + i] == '\r' && array[offset + i + 1] == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,37 @@
+package com.kryo.serializer.spymemcache;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Identity transcoder, lets SpyMemcached move the encoded bytes between memcached
+ * and the near cache and decode them itself.
+ */
+class CachedDataTranscoder implements Transcoder<CachedData> {
+
+	private final int maxSize;
+
+	CachedDataTranscoder(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	@Override
+	public boolean asyncDecode(CachedData d) {
+		return false;
+	}
+
+	@Override
+	public CachedData encode(CachedData d) {
+		return d;
+	}
+
+	@Override
+	public CachedData decode(CachedData d) {
+		return d;
+	}
+
+	@Override
+	public int getMaxSize() {
+		return maxSize;
+	}
+}
@@ -0,0 +1,136 @@
+package com.kryo.serializer.spymemcache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+import net.spy.memcached.CachedData;
+
+/**
+ * Value stored under the key of an encoded payload too large for a single item. The payload
+ * goes to chunk keys derived from the key, each chunk starting with the version of the write
+ * so chunks left by another write are detected; the CRC32 of the payload guards the rest.
+ */
+final class ChunkManifest {
+
+	private static final int MANIFEST_LENGTH = 24;
+	private static final int VERSION_LENGTH = 8;
+
+	private final int flags;
+	private final int length;
+	private final int chunkCount;
+	private final long version;
+	private final int checksum;
+
+	private ChunkManifest(int flags, int length, int chunkCount, long version, int checksum) {
+		this.flags = flags;
+		this.length = length;
+		this.chunkCount = chunkCount;
+		this.version = version;
+		this.checksum = checksum;
+	}
+
+	/**
+	 * Manifest for d split in chunks of at most chunkSize bytes, with a fresh version.
+	 */
+	static ChunkManifest of(CachedData d, int chunkSize) {
+		byte[] data = d.getData();
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		return new ChunkManifest(d.getFlags(), data.length, (data.length + chunkSize - 1) / chunkSize,
+				ThreadLocalRandom.current().nextLong(), (int) crc.getValue());
+	}
+
+	/**
+	 * Manifest stored in d, null when d isn't a valid manifest.
+	 */
+	static ChunkManifest from(CachedData d) {
+		byte[] data = d.getData();
+		if ((d.getFlags() & OptimizeTranscoder.CHUNKED) == 0 || data == null || data.length != MANIFEST_LENGTH) {
+			return null;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		ChunkManifest manifest = new ChunkManifest(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getLong(), buffer.getInt());
+		// every chunk holds a byte at least
+		return manifest.chunkCount > 0 && manifest.chunkCount <= manifest.length ? manifest : null;
+	}
+
+	CachedData toCachedData() {
+		ByteBuffer buffer = ByteBuffer.allocate(MANIFEST_LENGTH);
+		buffer.putInt(flags).putInt(length).putInt(chunkCount).putLong(version).putInt(checksum);
+		return new CachedData(OptimizeTranscoder.CHUNKED, buffer.array(), CachedData.MAX_SIZE);
+	}
+
+	int getChunkCount() {
+		return chunkCount;
+	}
+
+	static String chunkKey(String sanitizedKey, int index) {
+		return KeyEncoder.derive(sanitizedKey, "chunk:" + index);
+	}
+
+	List<String> chunkKeys(String sanitizedKey) {
+		List<String> keys = new ArrayList<String>(chunkCount);
+		for (int i = 0; i < chunkCount; i++) {
+			keys.add(chunkKey(sanitizedKey, i));
+		}
+		return keys;
+	}
+
+	/**
+	 * Chunks of d in order, each prefixed by the version; chunkSize as given to of.
+	 */
+	List<CachedData> split(CachedData d, int chunkSize) {
+		byte[] data = d.getData();
+		List<CachedData> chunks = new ArrayList<CachedData>(chunkCount);
+		for (int offset = 0; offset < length; offset += chunkSize) {
+			int size = Math.min(chunkSize, length - offset);
+			ByteBuffer chunk = ByteBuffer.allocate(VERSION_LENGTH + size);
+			chunk.putLong(version).put(data, offset, size);
+			chunks.add(new CachedData(0, chunk.array(), CachedData.MAX_SIZE));
+		}
+		return chunks;
+	}
+
+	/**
+	 * Payload reassembled from the chunks fetched for sanitizedKey, null when it is longer than
+	 * maxLength, a chunk is missing, belongs to another version or the checksum doesn't match.
+	 */
+	CachedData join(String sanitizedKey, Map<String, Object> chunks, int maxLength) {
+		if (length > maxLength) {
+			return null;
+		}
+		byte[] data = new byte[length];
+		int offset = 0;
+		for (int i = 0; i < chunkCount; i++) {
+			Object chunk = chunks.get(chunkKey(sanitizedKey, i));
+			if (!(chunk instanceof CachedData)) {
+				return null;
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(((CachedData) chunk).getData());
+			int size = buffer.remaining() - VERSION_LENGTH;
+			if (size < 0 || buffer.getLong() != version || offset + size > length) {
+				return null;
+			}
+			buffer.get(data, offset, size);
+			offset += size;
+		}
+		if (offset != length) {
+			return null;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+		if ((int) crc.getValue() != checksum) {
+			return null;
+		}
+		return new CachedData(flags, data, Math.max(length, CachedData.MAX_SIZE));
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ChunkManifest[flags=%d length=%d chunks=%d version=%d]", flags, length, chunkCount, version);
+	}
+}
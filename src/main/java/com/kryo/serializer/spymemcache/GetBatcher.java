@@ -0,0 +1,73 @@
+package com.kryo.serializer.spymemcache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges single-key gets arriving within windowMicros, or up to maxBatchSize distinct
+ * keys, into one bulk fetch; spymemcached then sends one multi-get per node. The same
+ * key requested twice in a batch is fetched once and both callers share the result.
+ */
+abstract class GetBatcher {
+
+	private final long windowMicros;
+	private final int maxBatchSize;
+	private final ScheduledExecutorService scheduler;
+
+	// guarded by this
+	private Map<String, CompletableFuture<Object>> batch;
+
+	GetBatcher(long windowMicros, int maxBatchSize, ScheduledExecutorService scheduler) {
+		this.windowMicros = windowMicros;
+		this.maxBatchSize = maxBatchSize;
+		this.scheduler = scheduler;
+	}
+
+	CompletableFuture<Object> get(String sanitizedKey) {
+		Map<String, CompletableFuture<Object>> full = null;
+		CompletableFuture<Object> result;
+		synchronized (this) {
+			if (batch == null) {
+				final Map<String, CompletableFuture<Object>> opened = batch = new LinkedHashMap<String, CompletableFuture<Object>>();
+				scheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						flush(opened);
+					}
+				}, windowMicros, TimeUnit.MICROSECONDS);
+			}
+			result = batch.get(sanitizedKey);
+			if (result == null) {
+				result = new CompletableFuture<Object>();
+				batch.put(sanitizedKey, result);
+			}
+			if (batch.size() >= maxBatchSize) {
+				full = batch;
+				batch = null;
+			}
+		}
+		if (full != null) {
+			fetch(full);
+		}
+		return result;
+	}
+
+	private void flush(Map<String, CompletableFuture<Object>> expired) {
+		synchronized (this) {
+			if (batch != expired) {
+				// already sent when it reached maxBatchSize
+				return;
+			}
+			batch = null;
+		}
+		fetch(expired);
+	}
+
+	/**
+	 * Fetch the keys of batch without blocking and complete each future, with null on a miss or an error.
+	 */
+	protected abstract void fetch(Map<String, CompletableFuture<Object>> batch);
+}
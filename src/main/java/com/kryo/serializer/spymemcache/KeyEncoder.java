@@ -0,0 +1,110 @@
+package com.kryo.serializer.spymemcache;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Memcached key encoding. Keys of printable ASCII other than '%' are returned as is,
+ * without allocating; other characters are escaped as %XX of their UTF-8 bytes.
+ * Encoded keys longer than MAX_LENGTH keep a prefix and end with the SHA-1 of the
+ * whole key, so distinct long keys don't collide.
+ * <p>
+ * In an encoded key '%' is always followed by 2 hex digits : the hash and the keys the client
+ * derives for its own data (locks, chunks) are marked by '%' and another character, they can't
+ * be equal to a user key.
+ */
+final class KeyEncoder {
+
+	static final int MAX_LENGTH = 250;
+
+	private static final String HASH_SEPARATOR = "%#";
+	private static final String DERIVED_SEPARATOR = "%:";
+	private static final int HASH_LENGTH = 40;
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private static final ThreadLocal<MessageDigest> SHA1 = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("SHA-1");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException("KeyEncoder : SHA-1 not available", e);
+			}
+		}
+	};
+
+	private KeyEncoder() {
+	}
+
+	static String encode(String key) {
+		int length = key.length();
+		int i = 0;
+		while (i < length && isSafe(key.charAt(i))) {
+			i++;
+		}
+		if (i == length) {
+			return limit(key);
+		}
+		StringBuilder sb = new StringBuilder(length + 16);
+		sb.append(key, 0, i);
+		for (; i < length; i++) {
+			char c = key.charAt(i);
+			if (isSafe(c)) {
+				sb.append(c);
+			} else if (c < 0x80) {
+				escape(sb, c);
+			} else if (c < 0x800) {
+				escape(sb, 0xC0 | (c >> 6));
+				escape(sb, 0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(key.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, key.charAt(++i));
+				escape(sb, 0xF0 | (cp >> 18));
+				escape(sb, 0x80 | ((cp >> 12) & 0x3F));
+				escape(sb, 0x80 | ((cp >> 6) & 0x3F));
+				escape(sb, 0x80 | (cp & 0x3F));
+			} else {
+				// lone surrogates go through as the replacement character, like String.getBytes
+				int cp = Character.isSurrogate(c) ? 0xFFFD : c;
+				escape(sb, 0xE0 | (cp >> 12));
+				escape(sb, 0x80 | ((cp >> 6) & 0x3F));
+				escape(sb, 0x80 | (cp & 0x3F));
+			}
+		}
+		return limit(sb.toString());
+	}
+
+	/**
+	 * Key of client data named name attached to an encoded key, capped to MAX_LENGTH.
+	 */
+	static String derive(String encodedKey, String name) {
+		return limit(encodedKey + DERIVED_SEPARATOR + name);
+	}
+
+	/**
+	 * Cap an already encoded key to MAX_LENGTH with a hash suffix.
+	 */
+	static String limit(String encodedKey) {
+		if (encodedKey.length() <= MAX_LENGTH) {
+			return encodedKey;
+		}
+		byte[] digest = SHA1.get().digest(encodedKey.getBytes(StandardCharsets.US_ASCII));
+		StringBuilder sb = new StringBuilder(MAX_LENGTH);
+		sb.append(encodedKey, 0, MAX_LENGTH - HASH_LENGTH - HASH_SEPARATOR.length()).append(HASH_SEPARATOR);
+		for (byte b : digest) {
+			sb.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Printable ASCII, '%' excluded so escapes stay unambiguous.
+	 */
+	private static boolean isSafe(char c) {
+		return c > ' ' && c < 0x7F && c != '%';
+	}
+
+	private static void escape(StringBuilder sb, int b) {
+		sb.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+	}
+}
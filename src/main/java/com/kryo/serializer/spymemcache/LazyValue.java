@@ -0,0 +1,46 @@
+package com.kryo.serializer.spymemcache;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Value of SpyMemcached.getLazy, holding the raw CachedData until the first get which
+ * decodes it on the calling thread, at most once; the bytes are released once decoded.
+ */
+public final class LazyValue {
+
+	private final Transcoder<Object> transcoder;
+	private volatile CachedData data;
+	private Object value;
+
+	LazyValue(Transcoder<Object> transcoder, CachedData data) {
+		this.transcoder = transcoder;
+		this.data = data;
+	}
+
+	/**
+	 * Already decoded value, typically from the near cache.
+	 */
+	LazyValue(Object value) {
+		this.transcoder = null;
+		this.value = value;
+	}
+
+	public Object get() {
+		if (data == null) {
+			return value;
+		}
+		synchronized (this) {
+			CachedData d = data;
+			if (d != null) {
+				value = transcoder.decode(d);
+				data = null;
+			}
+			return value;
+		}
+	}
+
+	public boolean isDecoded() {
+		return data == null;
+	}
+}
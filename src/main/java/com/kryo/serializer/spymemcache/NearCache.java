@@ -0,0 +1,147 @@
+package com.kryo.serializer.spymemcache;
+
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Weigher;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import net.spy.memcached.CachedData;
+
+/**
+ * Bounded in-process L1 in front of memcached (Caffeine, W-TinyLFU eviction).
+ * It stores either the decoded objects, bounded by entry count, or the encoded
+ * CachedData, bounded by bytes and decoded on every hit. Decoded objects are shared
+ * between callers and must not be mutated. Each entry lives ttlSeconds at most,
+ * capped by the memcached exp it was written with. Coherence is local only: other
+ * processes writing the same key are seen once the entry expires.
+ */
+public class NearCache {
+
+	public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+	public static final int DEFAULT_TTL_SECONDS = 60;
+
+	/** memcached reads exp values above 30 days as an absolute unix time */
+	private static final int MAX_RELATIVE_EXP = 60 * 60 * 24 * 30;
+
+	private final Cache<String, Entry> cache;
+	private final boolean storeBytes;
+	private final long ttlNanos;
+
+	public NearCache() {
+		this(DEFAULT_MAXIMUM_SIZE, DEFAULT_TTL_SECONDS, false);
+	}
+
+	/**
+	 * @param maximum entries when storing objects, bytes when storing CachedData
+	 */
+	public NearCache(long maximum, int ttlSeconds, boolean storeBytes) {
+		this.storeBytes = storeBytes;
+		this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+		Caffeine<Object, Object> builder = Caffeine.newBuilder().recordStats();
+		if (storeBytes) {
+			builder.maximumWeight(maximum).weigher(new Weigher<String, Entry>() {
+				@Override
+				public int weigh(String key, Entry entry) {
+					return key.length() + ((CachedData) entry.value).getData().length;
+				}
+			});
+		} else {
+			builder.maximumSize(maximum);
+		}
+		cache = builder.expireAfter(new Expiry<String, Entry>() {
+			@Override
+			public long expireAfterCreate(String key, Entry entry, long currentTime) {
+				return entry.ttlNanos;
+			}
+
+			@Override
+			public long expireAfterUpdate(String key, Entry entry, long currentTime, long currentDuration) {
+				return entry.ttlNanos;
+			}
+
+			@Override
+			public long expireAfterRead(String key, Entry entry, long currentTime, long currentDuration) {
+				return currentDuration;
+			}
+		}).build();
+	}
+
+	/**
+	 * True when values are CachedData to decode, false when they are decoded objects.
+	 */
+	public boolean isStoreBytes() {
+		return storeBytes;
+	}
+
+	public Object get(String key) {
+		Entry entry = cache.getIfPresent(key);
+		return entry == null ? null : entry.value;
+	}
+
+	/**
+	 * Cache value for the near cache ttl, or until exp when it comes first (same semantics as memcached).
+	 */
+	public void put(String key, Object value, int exp) {
+		if (value == null) {
+			cache.invalidate(key);
+			return;
+		}
+		long ttl = ttlNanos;
+		if (exp > MAX_RELATIVE_EXP) {
+			ttl = Math.min(ttl, TimeUnit.SECONDS.toNanos(exp) - TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()));
+		} else if (exp > 0) {
+			ttl = Math.min(ttl, TimeUnit.SECONDS.toNanos(exp));
+		} else if (exp < 0) {
+			ttl = 0;
+		}
+		if (ttl <= 0) {
+			cache.invalidate(key);
+			return;
+		}
+		cache.put(key, new Entry(value, ttl));
+	}
+
+	public void invalidate(String key) {
+		cache.invalidate(key);
+	}
+
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	/**
+	 * Run the pending evictions, Caffeine performs them asynchronously otherwise.
+	 */
+	public void cleanUp() {
+		cache.cleanUp();
+	}
+
+	public long size() {
+		return cache.estimatedSize();
+	}
+
+	public long getHits() {
+		return cache.stats().hitCount();
+	}
+
+	public long getMisses() {
+		return cache.stats().missCount();
+	}
+
+	public CacheStats getStats() {
+		return cache.stats();
+	}
+
+	private static final class Entry {
+		final Object value;
+		final long ttlNanos;
+
+		Entry(Object value, long ttlNanos) {
+			this.value = value;
+			this.ttlNanos = ttlNanos;
+		}
+	}
+}
@@ -5,25 +5,37 @@ package com.kryo.serializer.spymemcache;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
 import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
-import org.xerial.snappy.SnappyInputStream;
-import org.xerial.snappy.SnappyOutputStream;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import com.kryo.serializer.compress.CompressionAdvisor;
+import com.kryo.serializer.compress.CompressionCodec;
+import com.kryo.serializer.compress.GzipCodec;
+import com.kryo.serializer.compress.Lz4Codec;
+import com.kryo.serializer.compress.SnappyCodec;
+import com.kryo.serializer.compress.SnappyRawCodec;
+import com.kryo.serializer.compress.ZstdCodec;
+import com.kryo.serializer.compress.ZstdDictionaryCodec;
 import com.kryo.serializer.kryo.KryoFactory;
+import com.kryo.serializer.kryo.KryoPool;
+import com.kryo.serializer.kryo.KryoProjection;
+import com.kryo.serializer.metrics.Histogram;
+import com.kryo.serializer.metrics.Metrics;
+import com.kryo.serializer.util.Pool;
 
 import net.spy.memcached.CachedData;
 import net.spy.memcached.compat.SpyObject;
@@ -48,13 +60,27 @@ public class OptimizeTranscoder extends SpyObject implements Transcoder<Object>
 	static final int SPECIAL_DATE = 1024;
 	static final int SPECIAL_STRINGBUILDER = 2048;
 	static final int SPECIAL_BYTEARRAY = 4096;
-	static final int GZIP = 2;
+	static final int GZIP = GzipCodec.FLAG;
 	static final int SERIALIZED = 8;
-	static final int KRYO = 32768;
-	static final int SNAPPY = 65536;
-
-	static final int GZIP_THRESHOLD = 30720;
-	static final int SNAPPY_THRESHOLD = 1024;
+	/** Kryo with the compact and packed serializers */
+	static final int KRYO = 4194304;
+	/** Kryo before them, the same class ids had other serializers : read as a miss */
+	static final int KRYO_LEGACY = 32768;
+	static final int SNAPPY = SnappyCodec.FLAG;
+	static final int SNAPPY_RAW = SnappyRawCodec.FLAG;
+	static final int LZ4 = Lz4Codec.FLAG;
+	static final int ZSTD = ZstdCodec.FLAG;
+	static final int ZSTD_DICT = ZstdDictionaryCodec.FLAG;
+	/** manifest of a value stored in chunks, see ChunkManifest */
+	static final int CHUNKED = 2097152;
+
+	static final int TYPE_FLAGS = SPECIAL_BYTE | SPECIAL_BOOLEAN | SPECIAL_INT | SPECIAL_LONG | SPECIAL_CHARACTER
+			| SPECIAL_STRING | SPECIAL_STRINGBUFFER | SPECIAL_FLOAT | SPECIAL_SHORT | SPECIAL_DOUBLE | SPECIAL_DATE
+			| SPECIAL_STRINGBUILDER | SPECIAL_BYTEARRAY | SERIALIZED | KRYO;
+
+	static final int KRYO_BUFFER_SIZE = 4096;
+	static final int KRYO_BUFFER_MAX_RETAINED = 256 * 1024;
+	private static final byte[] EMPTY_BUFFER = new byte[0];
 
 
 	static final String DEFAULT_CHARSET = "UTF-8";
@@ -66,75 +92,257 @@ public class OptimizeTranscoder extends SpyObject implements Transcoder<Object>
 	private final TranscoderUtils tu = new TranscoderUtils(PACK_ZEROS);
 
 	private boolean kryoEnabled = false;
-	private boolean snappyEnabled = false;
+	private boolean snappyRawEnabled = true;
+
+	/**
+	 * Codecs usable for decode, indexed by the position of their flag bit.
+	 */
+	private final CompressionCodec[] codecs = new CompressionCodec[Integer.SIZE];
+	private int codecFlags = 0;
+	private CompressionCodec compressionCodec = null;
+	private CompressionCodec smallValueCodec = null;
+	private volatile CompressionAdvisor compressionAdvisor = new CompressionAdvisor();
+
+	/**
+	 * Per value type (indexed by the position of its type flag bit): encode/decode nanos,
+	 * stored bytes and stored/raw ratio in per mille.
+	 */
+	private final Metrics metrics = new Metrics();
+	private final Histogram[] encodeNanos = new Histogram[Integer.SIZE];
+	private final Histogram[] decodeNanos = new Histogram[Integer.SIZE];
+	private final Histogram[] storedBytes = new Histogram[Integer.SIZE];
+	private final Histogram[] compressionRatio = new Histogram[Integer.SIZE];
+	private final Histogram decodeFieldsNanos = metrics.histogram("decodeFields.nanos");
+
+	private static final KryoPool kryoPool = KryoFactory.getPool();
 
-	private static ThreadLocal<Kryo> kryo = new ThreadLocal<Kryo>() {
+	/**
+	 * Reusable growable buffers for Kryo encoding; only the exact-length result is copied out.
+	 * Buffers grown past KRYO_BUFFER_MAX_RETAINED are dropped so large values don't stay pinned.
+	 */
+	private static final Pool<Output> kryoOutputs = new Pool<Output>(KryoPool.DEFAULT_MAX_IDLE) {
 		@Override
-		protected Kryo initialValue() {
-			return KryoFactory.getInstance();
+		protected Output create() {
+			return new Output(KRYO_BUFFER_SIZE, -1);
+		}
+
+		@Override
+		protected boolean reset(Output output) {
+			output.clear();
+			return output.getBuffer().length <= KRYO_BUFFER_MAX_RETAINED;
+		}
+	};
+
+	/**
+	 * Reusable Inputs pointed straight at CachedData.getData(), no stream wrappers.
+	 */
+	private static final Pool<Input> kryoInputs = new Pool<Input>(KryoPool.DEFAULT_MAX_IDLE) {
+		@Override
+		protected Input create() {
+			return new Input(EMPTY_BUFFER);
+		}
+
+		@Override
+		protected boolean reset(Input input) {
+			input.setBuffer(EMPTY_BUFFER);
+			return true;
 		}
 	};
 
 	public OptimizeTranscoder() {
 		super();
 		this.maxSize = CachedData.MAX_SIZE;
+		registerCodec(new GzipCodec());
+		registerCodec(new SnappyCodec());
+		registerCodec(new SnappyRawCodec());
+		registerCodec(new Lz4Codec());
+		registerCodec(new ZstdCodec());
+		for (int flag : new int[] { SPECIAL_BYTE, SPECIAL_BOOLEAN, SPECIAL_INT, SPECIAL_LONG, SPECIAL_CHARACTER, SPECIAL_STRING,
+				SPECIAL_STRINGBUFFER, SPECIAL_FLOAT, SPECIAL_SHORT, SPECIAL_DOUBLE, SPECIAL_DATE, SPECIAL_STRINGBUILDER,
+				SPECIAL_BYTEARRAY, SERIALIZED, KRYO }) {
+			String type = typeName(flag);
+			int i = Integer.numberOfTrailingZeros(flag);
+			encodeNanos[i] = metrics.histogram("encode." + type + ".nanos");
+			decodeNanos[i] = metrics.histogram("decode." + type + ".nanos");
+			storedBytes[i] = metrics.histogram("encode." + type + ".bytes");
+			compressionRatio[i] = metrics.histogram("encode." + type + ".ratioPerMille");
+		}
+	}
+
+	static String typeName(int flag) {
+		switch (flag) {
+		case SPECIAL_BYTE:
+			return "byte";
+		case SPECIAL_BOOLEAN:
+			return "boolean";
+		case SPECIAL_INT:
+			return "int";
+		case SPECIAL_LONG:
+			return "long";
+		case SPECIAL_CHARACTER:
+			return "character";
+		case SPECIAL_STRING:
+			return "string";
+		case SPECIAL_STRINGBUFFER:
+			return "stringbuffer";
+		case SPECIAL_FLOAT:
+			return "float";
+		case SPECIAL_SHORT:
+			return "short";
+		case SPECIAL_DOUBLE:
+			return "double";
+		case SPECIAL_DATE:
+			return "date";
+		case SPECIAL_STRINGBUILDER:
+			return "stringbuilder";
+		case SPECIAL_BYTEARRAY:
+			return "bytearray";
+		case SERIALIZED:
+			return "serialized";
+		case KRYO:
+			return "kryo";
+		default:
+			return String.valueOf(flag);
+		}
+	}
+
+	/**
+	 * Encode/decode time, stored size and compression ratio histograms per value type.
+	 */
+	public Metrics getMetrics() {
+		return metrics;
 	}
 
 	public void setKryoEnabled(boolean kryoEnabled) {
+		if (kryoEnabled) {
+			// load the class id registry now, clashes fail at startup rather than on first encode
+			KryoFactory.getRegistry();
+		}
 		this.kryoEnabled = kryoEnabled;
-		this.snappyEnabled = kryoEnabled;
+	}
+
+	/**
+	 * Make a codec available for decode, replacing any codec registered with the same flag.
+	 */
+	public void registerCodec(CompressionCodec codec) {
+		int flag = codec.getFlag();
+		if (Integer.bitCount(flag) != 1 || (flag & (TYPE_FLAGS | CHUNKED | KRYO_LEGACY)) != 0) {
+			throw new IllegalArgumentException(String.format("Invalid flag %d for codec %s", flag, codec.getClass().getName()));
+		}
+		codecs[Integer.numberOfTrailingZeros(flag)] = codec;
+		codecFlags |= flag;
+	}
+
+	/**
+	 * Codec used by encode, null restores the default : SNAPPY_RAW (or SNAPPY) with Kryo, GZIP with Java serialization.
+	 */
+	public void setCompressionCodec(CompressionCodec compressionCodec) {
+		if (compressionCodec != null) {
+			registerCodec(compressionCodec);
+		}
+		this.compressionCodec = compressionCodec;
+	}
+
+	/**
+	 * Codec used by encode for values at or below the threshold of the compression codec,
+	 * typically a ZstdDictionaryCodec. Null (default) stores them uncompressed.
+	 */
+	public void setSmallValueCodec(CompressionCodec smallValueCodec) {
+		if (smallValueCodec != null) {
+			registerCodec(smallValueCodec);
+		}
+		this.smallValueCodec = smallValueCodec;
+	}
+
+	/**
+	 * Skips compression for value types and sizes that historically don't shrink, null compresses every time.
+	 */
+	public void setCompressionAdvisor(CompressionAdvisor compressionAdvisor) {
+		this.compressionAdvisor = compressionAdvisor;
+	}
+
+	public CompressionAdvisor getCompressionAdvisor() {
+		return compressionAdvisor;
+	}
+
+	/**
+	 * Learned compression decisions per value type and size bucket.
+	 */
+	public Map<String, CompressionAdvisor.Stats> getCompressionStats() {
+		CompressionAdvisor advisor = compressionAdvisor;
+		return advisor == null ? Collections.<String, CompressionAdvisor.Stats> emptyMap() : advisor.getStats();
+	}
+
+	public CompressionCodec getCompressionCodec() {
+		if (compressionCodec != null) {
+			return compressionCodec;
+		}
+		if (kryoEnabled) {
+			return codecs[Integer.numberOfTrailingZeros(snappyRawEnabled ? SNAPPY_RAW : SNAPPY)];
+		}
+		return codecs[Integer.numberOfTrailingZeros(GZIP)];
+	}
+
+	/**
+	 * Write the raw Snappy block format (SNAPPY_RAW flag) instead of the framed
+	 * SnappyOutputStream format (SNAPPY flag). Both are always decoded, disable
+	 * this while nodes that only know SNAPPY still read the same pool.
+	 */
+	public void setSnappyRawEnabled(boolean snappyRawEnabled) {
+		this.snappyRawEnabled = snappyRawEnabled;
 	}
 
 	@Override
 	public Object decode(CachedData d) {
+		long start = System.nanoTime();
+		Object rv = decodeValue(d);
+		int type = d.getFlags() & TYPE_FLAGS;
+		if (type != 0) {
+			decodeNanos[Integer.numberOfTrailingZeros(type)].record(System.nanoTime() - start);
+		}
+		return rv;
+	}
+
+	private Object decodeValue(CachedData d) {
+		if ((d.getFlags() & CHUNKED) != 0) {
+			// the caller fetches and joins the chunks
+			return ChunkManifest.from(d);
+		}
+		if ((d.getFlags() & KRYO_LEGACY) != 0) {
+			LOGGER.warn("Kryo value of the previous format, read as a miss");
+			return null;
+		}
 		byte[] data = d.getData();
 		Object rv = null;
 		if (data != null) {
 
-			if ((d.getFlags() & KRYO) != 0) {
-				ByteArrayInputStream bais = null;
-				SnappyInputStream sis = null;
-				Input input = null;
+			data = decompress(d.getFlags(), data);
+			if (data == null) {
+				return null;
+			}
+			int flags = d.getFlags() & ~codecFlags;
+
+			if ((flags & KRYO) != 0) {
+				Kryo kryo = kryoPool.borrow();
+				Input input = kryoInputs.borrow();
 				try {
-					InputStream is = bais = new ByteArrayInputStream(data);
-					if ((d.getFlags() & SNAPPY) != 0) {
-						is = sis = new SnappyInputStream(bais);
-					}
-					input = new Input(is);
-					rv = kryo.get().readClassAndObject(input);
-				} catch (InvalidClassException ice) {
-					LOGGER.warn("Stored and local class incompatible : " + ice.getMessage());
-				} catch (Exception ioe) {
-					LOGGER.error("IOException during KRYO deserialization", ioe);
+					input.setBuffer(data);
+					rv = kryo.readClassAndObject(input);
+				} catch (KryoException ke) {
+					LOGGER.warn("Stored and local class incompatible : " + ke.getMessage());
+				} catch (Exception e) {
+					LOGGER.error("Exception during KRYO deserialization", e);
 				} finally {
-					if (input != null) {
-						input.close();
-					}
-					if (sis != null) {
-						try {
-							sis.close();
-						} catch (IOException e) {
-							LOGGER.info("JAVA Serializer error : close ObjectOutputStream", e);
-						}
-					}
-					if (bais != null) {
-						try {
-							bais.close();
-						} catch (IOException e) {
-						}
-					}
+					kryoInputs.release(input);
+					kryoPool.release(kryo);
 				}
 
-			} else if ((d.getFlags() & SERIALIZED) != 0) {
+			} else if ((flags & SERIALIZED) != 0) {
 				ByteArrayInputStream bais = null;
-				GZIPInputStream gzis = null;
 				ObjectInputStream ois = null;
 				try {
-					InputStream is = bais = new ByteArrayInputStream(data);
-					if ((d.getFlags() & GZIP) != 0) {
-						is = gzis = new GZIPInputStream(bais);
-					}
-	                ois = new ObjectInputStream(is) {
+					bais = new ByteArrayInputStream(data);
+	                ois = new ObjectInputStream(bais) {
 	                    @Override
 	                    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
 	                        try {
@@ -154,11 +362,6 @@ public class OptimizeTranscoder extends SpyObject implements Transcoder<Object>
 							ois.close();
 						} catch (IOException e) {}
 					}
-					if (gzis != null) {
-						try {
-							gzis.close();
-						} catch (IOException e) {}
-					}
 					if (bais != null) {
 						try {
 							bais.close();
@@ -166,16 +369,8 @@ public class OptimizeTranscoder extends SpyObject implements Transcoder<Object>
 					}
 				}
 
-			} else if ((d.getFlags() & GZIP) != 0) {
-				data = gzipDecompress(d.getData());
-
-			} else if ((d.getFlags() & SNAPPY) != 0) {
-				data = snappyDecompress(d.getData());
-			}
-
-			if ((d.getFlags() & (KRYO | SERIALIZED)) == 0) {
-				int f = d.getFlags() & ~ (GZIP | SNAPPY);
-				switch(f) {
+			} else {
+				switch(flags) {
 				case SPECIAL_BOOLEAN:
 					rv = Boolean.valueOf(decodeBoolean(data));
 					break;
@@ -221,14 +416,76 @@ public class OptimizeTranscoder extends SpyObject implements Transcoder<Object>
 		return rv;
 	}
 
+	/**
+	 * Some fields of a bean value. Kryo values are projected, skipping the other fields instead of
+	 * building them; other values are decoded fully. Null when d isn't a type.
+	 */
+	public Map<String, Object> decodeFields(CachedData d, Class<?> type, Set<String> fields) {
+		long start = System.nanoTime();
+		try {
+			if ((d.getFlags() & (KRYO | CHUNKED)) == KRYO) {
+				byte[] data = decompress(d.getFlags(), d.getData());
+				if (data == null) {
+					return null;
+				}
+				Kryo kryo = kryoPool.borrow();
+				Input input = kryoInputs.borrow();
+				try {
+					input.setBuffer(data);
+					Map<String, Object> values = KryoProjection.read(kryo, input, type, fields);
+					if (values != null) {
+						return values;
+					}
+				} catch (KryoException ke) {
+					LOGGER.warn("Stored and local class incompatible : " + ke.getMessage());
+					return null;
+				} finally {
+					kryoInputs.release(input);
+					kryoPool.release(kryo);
+				}
+			}
+			Object o = decode(d);
+			return type.isInstance(o) ? KryoProjection.fieldsOf(o, fields) : null;
+		} finally {
+			decodeFieldsNanos.record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Decompress data with the codec of its flags, null on failure, above the max size or when
+	 * a flag bit has no registered codec : decoding it as Kryo or a type would read garbage.
+	 */
+	private byte[] decompress(int flags, byte[] data) {
+		int compression = flags & codecFlags;
+		if ((flags & ~(TYPE_FLAGS | CHUNKED | KRYO_LEGACY | codecFlags)) != 0 || Integer.bitCount(compression) > 1) {
+			LOGGER.warn(String.format("Flags %d of an unknown codec, read as a miss", flags));
+			return null;
+		}
+		if (compression == 0 || data == null) {
+			return data;
+		}
+		return codecs[Integer.numberOfTrailingZeros(compression)].decompress(data, getMaxSize());
+	}
+
 	@Override
 	public CachedData encode(Object o) {
+		long start = System.nanoTime();
+		CachedData d = encodeValue(o);
+		int type = d.getFlags() & TYPE_FLAGS;
+		if (type != 0) {
+			encodeNanos[Integer.numberOfTrailingZeros(type)].record(System.nanoTime() - start);
+		}
+		return d;
+	}
+
+	private CachedData encodeValue(Object o) {
 		byte[] b = null;
 		int flags = 0;
 		if (o instanceof String) {
 			b = encodeString((String) o);
 			flags |= SPECIAL_STRING;
 			if (StringUtils.isJsonObject((String) o)) {
+				recordSize(flags, b.length, b.length);
 				return new CachedData(flags, b, getMaxSize());
 			}
 		} else if (o instanceof StringBuffer) {
@@ -269,13 +526,16 @@ public class OptimizeTranscoder extends SpyObject implements Transcoder<Object>
 			flags |= SPECIAL_CHARACTER;
 
 		} else if (kryoEnabled) {
-			ByteArrayOutputStream bos = new ByteArrayOutputStream();
-			Output output = new Output(bos);
-			kryo.get().writeClassAndObject(output, o);
-			output.flush();
-			b = bos.toByteArray();
-			output.close();
-			flags |= KRYO;
+			Kryo kryo = kryoPool.borrow();
+			Output output = kryoOutputs.borrow();
+			try {
+				kryo.writeClassAndObject(output, o);
+				// compress straight from the Kryo buffer, no intermediate copy
+				return compress(o == null ? null : o.getClass(), flags | KRYO, output.getBuffer(), output.position());
+			} finally {
+				kryoOutputs.release(output);
+				kryoPool.release(kryo);
+			}
 
 		} else {
 			b = serialize(o);
@@ -284,26 +544,37 @@ public class OptimizeTranscoder extends SpyObject implements Transcoder<Object>
 
 		assert b != null;
 
-		if (snappyEnabled) {
-			if (b.length > SNAPPY_THRESHOLD) {
-				byte[] compressed = snappyCompress(b);
-				if (compressed != null && compressed.length < b.length) {
-					b = compressed;
-					flags |= SNAPPY;
-				}
-			}
+		return compress(o.getClass(), flags, b, b.length);
+	}
 
-		} else {
-			if (b.length > GZIP_THRESHOLD) {
-				byte[] compressed = gzipCompress(b);
-				if (compressed != null && compressed.length < b.length) {
-					b = compressed;
-					flags |= GZIP;
-				} 
+	/**
+	 * type is null for a null value, left out of the advisor.
+	 */
+	private CachedData compress(Class<?> type, int flags, byte[] b, int length) {
+		CompressionCodec codec = getCompressionCodec();
+		if (codec == null || length <= codec.getThreshold()) {
+			codec = smallValueCodec;
+		}
+		CompressionAdvisor advisor = type == null ? null : compressionAdvisor;
+		if (codec != null && length > codec.getThreshold() && (advisor == null || advisor.shouldCompress(type, length))) {
+			long start = System.nanoTime();
+			byte[] compressed = codec.compress(b, length);
+			if (advisor != null && compressed != null) {
+				advisor.record(type, length, Math.min(compressed.length, length), System.nanoTime() - start);
+			}
+			if (compressed != null && compressed.length < length) {
+				recordSize(flags, length, compressed.length);
+				return new CachedData(flags | codec.getFlag(), compressed, getMaxSize());
 			}
 		}
+		recordSize(flags, length, length);
+		return new CachedData(flags, length == b.length ? b : Arrays.copyOf(b, length), getMaxSize());
+	}
 
-		return new CachedData(flags, b, getMaxSize());
+	private void recordSize(int flags, int length, int stored) {
+		int i = Integer.numberOfTrailingZeros(flags & TYPE_FLAGS);
+		storedBytes[i].record(stored);
+		compressionRatio[i].record(length == 0 ? 1000 : stored * 1000L / length);
 	}
 
 	/**
@@ -359,6 +630,14 @@ public class OptimizeTranscoder extends SpyObject implements Transcoder<Object>
 		return maxSize;
 	}
 
+	/**
+	 * Largest encoded value, CachedData.MAX_SIZE by default. Raise it only when values above
+	 * the memcached item size are stored in chunks, as SpyMemcached does.
+	 */
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
 	/**
 	 * Get the bytes representing the given serialized object.
 	 */
@@ -396,130 +675,4 @@ public class OptimizeTranscoder extends SpyObject implements Transcoder<Object>
 		}
 		return rv;
 	}
-
-	private byte[] gzipCompress(byte[] in) {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		GZIPOutputStream gzip = null;
-		try {
-			gzip = new GZIPOutputStream(baos);
-			gzip.write(in);
-		} catch (IOException e) {
-			LOGGER.warn("GZIP compression failed", e);
-			return null;
-		} finally {
-			if (gzip != null) {
-				try {
-					gzip.close();
-				} catch (IOException e) {
-					LOGGER.info("GZIP compression error : close GZIPOutputStream", e);
-				}
-			}
-			if (baos != null) {
-				try {
-					baos.close();
-				} catch (IOException e) {
-					LOGGER.info("GZIP compression error : close ByteArrayOutputStream", e);
-				}
-			}
-		}
-		return baos.toByteArray();
-	}
-
-	private byte[] gzipDecompress(byte[] in) {
-		ByteArrayOutputStream baos = null;
-		if (in != null) {
-			ByteArrayInputStream bais = new ByteArrayInputStream(in);
-			baos = new ByteArrayOutputStream();
-			GZIPInputStream gzip = null;
-			try {
-				gzip = new GZIPInputStream(bais);
-				byte[] buf = new byte[16 * 1024];
-				int r = -1;
-				while ((r = gzip.read(buf)) > 0) {
-					baos.write(buf, 0, r);
-				}
-			} catch (IOException e) {
-				LOGGER.error("GZIP decompression failed", e);
-				baos = null;
-			} finally {
-				if (gzip != null) {
-					try {
-						gzip.close();
-					} catch (IOException e) {
-						LOGGER.info("GZIP compression error : close GZIPInputStream", e);
-					}
-				}
-				if (bais != null) {
-					try {
-						bais.close();
-					} catch (IOException e) {
-						LOGGER.info("GZIP compression error : close ByteArrayInputStream", e);
-					}
-				}
-			}
-		}
-		return baos == null ? null : baos.toByteArray();
-	}
-
-	private byte[] snappyCompress(byte[] in) {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(in.length);
-		SnappyOutputStream snappy = null;
-		try {
-			snappy = new SnappyOutputStream(baos);
-			snappy.write(in);
-		} catch (IOException e) {
-			LOGGER.warn("SNAPPY compression failed", e);
-			return null;
-		} finally {
-			if (snappy != null) {
-				try {
-					snappy.close();
-				} catch (IOException e) {
-					LOGGER.info("SNAPPY compression error : close SnappyOutputStream", e);
-				}
-			}
-			try {
-				baos.close();
-			} catch (IOException e) {
-				LOGGER.info("SNAPPY compression error : close ByteArrayOutputStream", e);
-			}
-		}
-		return baos.toByteArray();
-	}
-
-	private byte[] snappyDecompress(byte[] in) {
-		ByteArrayOutputStream baos = null;
-		if (in != null) {
-			ByteArrayInputStream bais = new ByteArrayInputStream(in);
-			baos = new ByteArrayOutputStream();
-			SnappyInputStream snappy = null;
-			try {
-				snappy = new SnappyInputStream(bais);
-				byte[] buf = new byte[16 * 1024];
-				int r = -1;
-				while ((r = snappy.read(buf)) > 0) {
-					baos.write(buf, 0, r);
-				}
-			} catch (IOException e) {
-				LOGGER.error("SNAPPY decompression failed", e);
-				baos = null;
-			} finally {
-				if (snappy != null) {
-					try {
-						snappy.close();
-					} catch (IOException e) {
-						LOGGER.info("SNAPPY compression error : close SnappyInputStream", e);
-					}
-				}
-				if (bais != null) {
-					try {
-						bais.close();
-					} catch (IOException e) {
-						LOGGER.info("SNAPPY compression error : close ByteArrayInputStream", e);
-					}
-				}
-			}
-		}
-		return baos == null ? null : baos.toByteArray();
-	}
 }
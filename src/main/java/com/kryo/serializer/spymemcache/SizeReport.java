@@ -0,0 +1,405 @@
+package com.kryo.serializer.spymemcache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeSet;
+
+import com.kryo.serializer.bean.BeanSerializable;
+import com.kryo.serializer.compress.CompressionCodec;
+import com.kryo.serializer.compress.GzipCodec;
+import com.kryo.serializer.compress.Lz4Codec;
+import com.kryo.serializer.compress.SnappyCodec;
+import com.kryo.serializer.compress.SnappyRawCodec;
+import com.kryo.serializer.compress.ZstdCodec;
+import com.kryo.serializer.compress.ZstdDictionaryCodec;
+
+import net.spy.memcached.CachedData;
+
+/**
+ * Stored size of sample objects in every transcoder mode, to size the memcached fleet by bytes
+ * per entry and catch types that grow. Each class gets a row per mode with the serialized
+ * (raw) size, the stored size, the flags chosen and the encode/decode times; samples of a
+ * class are averaged, the largest stored size is kept for budgets.
+ * <p>
+ * Budgets are properties of the form class@MODE=bytes, checked against the largest stored size.
+ * <p>
+ * Usage : SizeReport [-corpus dump] [-budget properties] [-iterations n], where dump holds
+ * objects written one after the other on an ObjectOutputStream (see writeCorpus); the built-in
+ * corpus is used without one. Exits with 1 when a budget is exceeded.
+ */
+public class SizeReport {
+
+	/**
+	 * Transcoder configurations, compression with the codec default thresholds.
+	 */
+	public enum Mode {
+		SERIALIZED(false, null),
+		GZIP(false, new GzipCodec()),
+		KRYO(true, null),
+		KRYO_SNAPPY(true, new SnappyRawCodec()),
+		KRYO_LZ4(true, new Lz4Codec()),
+		KRYO_ZSTD(true, new ZstdCodec());
+
+		private final boolean kryo;
+		private final CompressionCodec codec;
+
+		Mode(boolean kryo, CompressionCodec codec) {
+			this.kryo = kryo;
+			this.codec = codec;
+		}
+
+		OptimizeTranscoder newTranscoder() {
+			OptimizeTranscoder transcoder = new OptimizeTranscoder();
+			transcoder.setKryoEnabled(kryo);
+			// a codec nothing reaches stands for no compression
+			transcoder.setCompressionCodec(codec != null ? codec : new SnappyRawCodec(Integer.MAX_VALUE));
+			transcoder.setMaxSize(Integer.MAX_VALUE);
+			return transcoder;
+		}
+	}
+
+	public static final int DEFAULT_ITERATIONS = 100;
+
+	private final int iterations;
+	private final List<Object> samples = new ArrayList<Object>();
+
+	public SizeReport() {
+		this(DEFAULT_ITERATIONS);
+	}
+
+	/**
+	 * @param iterations encodes and decodes timed per sample and mode, after as many warm-up ones
+	 */
+	public SizeReport(int iterations) {
+		this.iterations = Math.max(1, iterations);
+	}
+
+	public SizeReport add(Object sample) {
+		samples.add(sample);
+		return this;
+	}
+
+	public SizeReport addAll(Collection<?> samples) {
+		this.samples.addAll(samples);
+		return this;
+	}
+
+	/**
+	 * One row per sample class and mode, classes in the order they were added.
+	 */
+	public List<Row> run() {
+		Map<Mode, OptimizeTranscoder> transcoders = new LinkedHashMap<Mode, OptimizeTranscoder>();
+		for (Mode mode : Mode.values()) {
+			transcoders.put(mode, mode.newTranscoder());
+		}
+		Map<String, Row> rows = new LinkedHashMap<String, Row>();
+		for (Object sample : samples) {
+			String type = sample.getClass().getName();
+			for (Mode mode : Mode.values()) {
+				Row row = rows.get(type + "@" + mode);
+				if (row == null) {
+					row = new Row(type, mode);
+					rows.put(type + "@" + mode, row);
+				}
+				try {
+					int raw = transcoders.get(mode.kryo ? Mode.KRYO : Mode.SERIALIZED).encode(sample).getData().length;
+					measure(row, transcoders.get(mode), sample, raw);
+				} catch (RuntimeException e) {
+					row.failures++;
+				}
+			}
+		}
+		return new ArrayList<Row>(rows.values());
+	}
+
+	private void measure(Row row, OptimizeTranscoder transcoder, Object sample, int raw) {
+		CachedData d = null;
+		for (int i = 0; i < iterations; i++) {
+			d = transcoder.encode(sample);
+			transcoder.decode(d);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			d = transcoder.encode(sample);
+		}
+		long encodeNanos = (System.nanoTime() - start) / iterations;
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			transcoder.decode(d);
+		}
+		long decodeNanos = (System.nanoTime() - start) / iterations;
+		row.record(raw, d.getData().length, flagNames(d.getFlags()), encodeNanos, decodeNanos);
+	}
+
+	/**
+	 * Budget overruns : a message per row whose largest stored size is above its class@MODE budget.
+	 */
+	public static List<String> checkBudget(List<Row> rows, Properties budget) {
+		List<String> overruns = new ArrayList<String>();
+		for (Row row : rows) {
+			String limit = budget.getProperty(row.getType() + "@" + row.getMode());
+			if (limit != null && row.getMaxStoredSize() > Long.parseLong(limit.trim())) {
+				overruns.add(String.format("%s@%s stores %d bytes, budget %s", row.getType(), row.getMode(), row.getMaxStoredSize(), limit.trim()));
+			}
+		}
+		return overruns;
+	}
+
+	public static String format(List<Row> rows) {
+		StringBuilder sb = new StringBuilder();
+		String pattern = "%-50s %-12s %8s %10s %10s %10s %-28s %10s %10s%n";
+		sb.append(String.format(pattern, "class", "mode", "samples", "raw", "stored", "max", "flags", "encode ns", "decode ns"));
+		for (Row row : rows) {
+			if (row.getSamples() == 0) {
+				sb.append(String.format(pattern, row.getType(), row.getMode(), 0, "-", "-", "-", "FAILED", "-", "-"));
+				continue;
+			}
+			sb.append(String.format(pattern, row.getType(), row.getMode(), row.getSamples(), row.getRawSize(), row.getStoredSize(),
+					row.getMaxStoredSize(), row.getFlags(), row.getEncodeNanos(), row.getDecodeNanos()));
+		}
+		return sb.toString();
+	}
+
+	static String flagNames(int flags) {
+		StringBuilder sb = new StringBuilder(OptimizeTranscoder.typeName(flags & OptimizeTranscoder.TYPE_FLAGS).toUpperCase());
+		int[] codecFlags = { GzipCodec.FLAG, SnappyCodec.FLAG, SnappyRawCodec.FLAG, Lz4Codec.FLAG, ZstdCodec.FLAG, ZstdDictionaryCodec.FLAG };
+		String[] codecNames = { "GZIP", "SNAPPY", "SNAPPY_RAW", "LZ4", "ZSTD", "ZSTD_DICT" };
+		for (int i = 0; i < codecFlags.length; i++) {
+			if ((flags & codecFlags[i]) != 0) {
+				sb.append('|').append(codecNames[i]);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Deterministic samples of the value types the cache holds, from a few bytes to a few hundred KB.
+	 */
+	public static List<Object> generatedCorpus() {
+		Random random = new Random(42);
+		List<Object> corpus = new ArrayList<Object>();
+		for (int size : new int[] { 1, 100, 10000 }) {
+			corpus.add(bean(size));
+		}
+		for (int size : new int[] { 16, 1024, 64 * 1024 }) {
+			corpus.add(text(random, size));
+		}
+		corpus.add(Long.valueOf(1392116197393L));
+		corpus.add(Integer.valueOf(42));
+		corpus.add(new Date(1392116197393L));
+		byte[] bytes = new byte[4096];
+		random.nextBytes(bytes);
+		corpus.add(bytes);
+		HashMap<String, Integer> map = new HashMap<String, Integer>();
+		ArrayList<Long> list = new ArrayList<Long>();
+		for (int i = 0; i < 1000; i++) {
+			map.put("key" + i, i);
+			list.add(1392116197393L + i * 1000L);
+		}
+		corpus.add(map);
+		corpus.add(list);
+		return corpus;
+	}
+
+	private static BeanSerializable bean(int listSize) {
+		BeanSerializable bs = new BeanSerializable();
+		bs.setMyInteger(42);
+		bs.setMyBoolean(true);
+		bs.setMyByte((byte) 1);
+		bs.setMyChar('C');
+		bs.setMyDate(new Date(1392116197393L));
+		bs.setMyDouble(123);
+		bs.setMyFloat(2);
+		ArrayList<String> list = new ArrayList<String>();
+		for (int i = 0; i < listSize; i++) {
+			list.add("David" + i);
+		}
+		bs.setMyList(list);
+		return bs;
+	}
+
+	private static String text(Random random, int size) {
+		String[] words = { "memcached", "kryo", "value", "user", "session", "cart", "item", "price", "status", "OK", "42" };
+		StringBuilder sb = new StringBuilder(size + 16);
+		while (sb.length() < size) {
+			sb.append(words[random.nextInt(words.length)]).append(' ');
+		}
+		sb.setLength(size);
+		return sb.toString();
+	}
+
+	/**
+	 * Objects written one after the other on an ObjectOutputStream, up to the end of the file.
+	 */
+	public static List<Object> readCorpus(File dump) throws IOException, ClassNotFoundException {
+		List<Object> corpus = new ArrayList<Object>();
+		InputStream in = new BufferedInputStream(new FileInputStream(dump));
+		try {
+			ObjectInputStream ois = new ObjectInputStream(in);
+			while (true) {
+				try {
+					corpus.add(ois.readObject());
+				} catch (EOFException e) {
+					return corpus;
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	public static void writeCorpus(File dump, Collection<?> samples) throws IOException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(dump));
+		try {
+			ObjectOutputStream oos = new ObjectOutputStream(out);
+			for (Object sample : samples) {
+				oos.writeObject(sample);
+			}
+			oos.flush();
+		} finally {
+			out.close();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		List<Object> corpus = null;
+		Properties budget = null;
+		int iterations = DEFAULT_ITERATIONS;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if ("-corpus".equals(args[i])) {
+				corpus = readCorpus(new File(args[i + 1]));
+			} else if ("-budget".equals(args[i])) {
+				budget = new Properties();
+				InputStream in = new FileInputStream(args[i + 1]);
+				try {
+					budget.load(in);
+				} finally {
+					in.close();
+				}
+			} else if ("-iterations".equals(args[i])) {
+				iterations = Integer.parseInt(args[i + 1]);
+			} else {
+				throw new IllegalArgumentException("Unknown option " + args[i] + ", expected " + Arrays.asList("-corpus", "-budget", "-iterations"));
+			}
+		}
+		List<Row> rows = new SizeReport(iterations).addAll(corpus != null ? corpus : generatedCorpus()).run();
+		System.out.print(format(rows));
+		if (budget != null) {
+			List<String> overruns = checkBudget(rows, budget);
+			for (String overrun : overruns) {
+				System.err.println("Over budget : " + overrun);
+			}
+			if (!overruns.isEmpty()) {
+				System.exit(1);
+			}
+		}
+	}
+
+	public static final class Row {
+		private final String type;
+		private final Mode mode;
+		private final TreeSet<String> flags = new TreeSet<String>();
+		private int samples;
+		private int failures;
+		private long rawSize;
+		private long storedSize;
+		private long maxStoredSize;
+		private long encodeNanos;
+		private long decodeNanos;
+
+		Row(String type, Mode mode) {
+			this.type = type;
+			this.mode = mode;
+		}
+
+		void record(int raw, int stored, String flagNames, long encode, long decode) {
+			samples++;
+			rawSize += raw;
+			storedSize += stored;
+			maxStoredSize = Math.max(maxStoredSize, stored);
+			flags.add(flagNames);
+			encodeNanos += encode;
+			decodeNanos += decode;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public Mode getMode() {
+			return mode;
+		}
+
+		public int getSamples() {
+			return samples;
+		}
+
+		/**
+		 * Samples the mode can't encode, e.g. not Serializable.
+		 */
+		public int getFailures() {
+			return failures;
+		}
+
+		/**
+		 * Average serialized size before compression.
+		 */
+		public long getRawSize() {
+			return samples == 0 ? 0 : rawSize / samples;
+		}
+
+		/**
+		 * Average size stored in memcached.
+		 */
+		public long getStoredSize() {
+			return samples == 0 ? 0 : storedSize / samples;
+		}
+
+		public long getMaxStoredSize() {
+			return maxStoredSize;
+		}
+
+		/**
+		 * Flags chosen by the transcoder, several when samples of the class differ.
+		 */
+		public String getFlags() {
+			StringBuilder sb = new StringBuilder();
+			for (String flag : flags) {
+				sb.append(sb.length() == 0 ? "" : ",").append(flag);
+			}
+			return sb.toString();
+		}
+
+		public long getEncodeNanos() {
+			return samples == 0 ? 0 : encodeNanos / samples;
+		}
+
+		public long getDecodeNanos() {
+			return samples == 0 ? 0 : decodeNanos / samples;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s@%s raw=%d stored=%d max=%d flags=%s", type, mode, getRawSize(), getStoredSize(), maxStoredSize, getFlags());
+		}
+	}
+}
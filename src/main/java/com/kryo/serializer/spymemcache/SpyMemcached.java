@@ -1,34 +1,99 @@
 package com.kryo.serializer.spymemcache;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
-import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 
-import net.spy.memcached.ConnectionFactoryBuilder;
-import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
-import net.spy.memcached.FailureMode;
+import com.kryo.serializer.kryo.KryoProjection;
+import com.kryo.serializer.metrics.Histogram;
+import com.kryo.serializer.metrics.HotKeyTracker;
+import com.kryo.serializer.metrics.Metrics;
+
+import net.spy.memcached.CachedData;
 import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.internal.BulkFuture;
+import net.spy.memcached.internal.BulkGetCompletionListener;
+import net.spy.memcached.internal.BulkGetFuture;
+import net.spy.memcached.internal.GetCompletionListener;
+import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.internal.OperationCompletionListener;
+import net.spy.memcached.internal.OperationFuture;
 
 public class SpyMemcached {
 	
 	static final Logger LOGGER = LogManager.getLogger(OptimizeTranscoder.class);
 
-	private static final int KEY_MAX_SIZE = 250;
-	private MemcachedClient client = null;
+	private static final String LOAD_LOCK_NAME = "lock";
+	private static final long LOAD_LOCK_POLL_MILLIS = 20;
+
+	/** async timeouts and get batching windows */
+	private static final ScheduledThreadPoolExecutor SCHEDULER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "spymemcached-scheduler");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	static {
+		SCHEDULER.setRemoveOnCancelPolicy(true);
+	}
+
+	private MemcachedClient[] clients = null;
+	private OptimizeTranscoder transcoder;
+	private CachedDataTranscoder rawTranscoder;
+	/** values encoded larger than this are stored in chunks, 0 when chunking is off */
+	private int chunkSize;
+	private volatile NearCache nearCache;
+	private volatile GetBatcher getBatcher;
+	private volatile HotKeyTracker hotKeyTracker;
 	private String serverPoolAdresses;
 	private boolean kryoEnabled = false;
-	private volatile int hits = 0;
-	private volatile int misses = 0;
+	private SpyMemcachedConfig config = new SpyMemcachedConfig();
+	private final Metrics metrics = new Metrics();
+	private final LongAdder hits = metrics.counter("hits");
+	private final LongAdder misses = metrics.counter("misses");
+	private final Histogram getNanos = metrics.histogram("get.nanos");
+	private final Histogram getBulkNanos = metrics.histogram("getBulk.nanos");
+	private final Histogram setNanos = metrics.histogram("set.nanos");
+	private final Histogram deleteNanos = metrics.histogram("delete.nanos");
+	private final Histogram incrNanos = metrics.histogram("incr.nanos");
+	/** time decode tasks wait for a decode executor thread */
+	private final Histogram decodeQueueNanos = metrics.histogram("decode.queue.nanos");
 	private volatile boolean initialized = false;
+	private volatile int loadLockSeconds = 0;
+	private final ConcurrentMap<String, CompletableFuture<Object>> loads = new ConcurrentHashMap<String, CompletableFuture<Object>>();
 
 	public SpyMemcached() {}
 
@@ -42,51 +107,201 @@ public class SpyMemcached {
 		init();
 	}
 
+	public SpyMemcached(String serverPoolAddresses, boolean kryoEnabled, SpyMemcachedConfig config) {
+		this.serverPoolAdresses = serverPoolAddresses;
+		this.kryoEnabled = kryoEnabled;
+		this.config = config;
+		init();
+	}
+
 	protected void init() {
-		OptimizeTranscoder transcoder = new OptimizeTranscoder();
+		transcoder = new OptimizeTranscoder();
 		transcoder.setKryoEnabled(kryoEnabled);
+		if (config.isChunking()) {
+			transcoder.setMaxSize(config.getMaxValueSize());
+			chunkSize = config.getChunkSize();
+		} else {
+			chunkSize = 0;
+		}
+		rawTranscoder = new CachedDataTranscoder(transcoder.getMaxSize());
 		try {
-			client = new MemcachedClient(new ConnectionFactoryBuilder()
-					.setProtocol(Protocol.TEXT)
-					.setTranscoder(transcoder)
-					.setFailureMode(FailureMode.Cancel)
-					.build(),
-					getAddresses(serverPoolAdresses));
+			MemcachedClient[] created = new MemcachedClient[Math.max(1, config.getClientCount())];
+			for (int i = 0; i < created.length; i++) {
+				created[i] = new MemcachedClient(config.newConnectionFactory(transcoder), getAddresses(serverPoolAdresses));
+			}
+			clients = created;
 		} catch (IOException e) {}
 	}
 
 	protected void destroy() {
-		if (client != null) {
-			client.shutdown();
+		if (clients != null) {
+			for (MemcachedClient client : clients) {
+				client.shutdown();
+			}
+		}
+	}
+
+	public SpyMemcachedConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * Connection settings, taken into account by the next init.
+	 */
+	public void setConfig(SpyMemcachedConfig config) {
+		this.config = config;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Hit/miss counters and latency histograms of get, getBulk, set, delete and incr (memcached
+	 * round trips only, near cache hits are counted as hits but not timed). Fire-and-forget
+	 * asyncPut/asyncInvalidate aren't timed.
+	 */
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Transcoder metrics: encode/decode time, stored size and compression ratio per value type.
+	 */
+	public Metrics getTranscoderMetrics() {
+		return transcoder.getMetrics();
+	}
+
+	/**
+	 * Export client and transcoder metrics over JMX as com.kryo.serializer:type=SpyMemcached|OptimizeTranscoder,name=name.
+	 */
+	public void registerMBeans(String name) {
+		metrics.register("SpyMemcached", name);
+		transcoder.getMetrics().register("OptimizeTranscoder", name);
+	}
+
+	public NearCache getNearCache() {
+		return nearCache;
+	}
+
+	/**
+	 * Optional in-process L1 checked before memcached, null to disable.
+	 */
+	public void setNearCache(NearCache nearCache) {
+		this.nearCache = nearCache;
+	}
+
+	/**
+	 * Opt-in: single-key gets arriving within windowMicros, or up to maxBatchSize keys, are merged
+	 * into one multi-get per node. windowMicros <= 0 disables batching.
+	 */
+	public void setGetBatching(long windowMicros, int maxBatchSize) {
+		if (windowMicros <= 0 || maxBatchSize <= 1) {
+			getBatcher = null;
+			return;
 		}
+		getBatcher = new GetBatcher(windowMicros, maxBatchSize, SCHEDULER) {
+			@Override
+			protected void fetch(Map<String, CompletableFuture<Object>> batch) {
+				fetchBatch(batch);
+			}
+		};
 	}
 
-	public int getHits() {
-		return hits;
+	public HotKeyTracker getHotKeyTracker() {
+		return hotKeyTracker;
 	}
 
-	public int getMisses() {
-		return misses;
+	/**
+	 * Optional sampling of get, get(String[]) and put keys to report the hottest ones, null to disable.
+	 * Sampled gets and puts also record the value size; near cache hits aren't counted.
+	 */
+	public void setHotKeyTracker(HotKeyTracker hotKeyTracker) {
+		this.hotKeyTracker = hotKeyTracker;
 	}
 
 	public Object get(String key) {
 		if (key == null || key.length() == 0) {
 			return null;
 		}
-		String sanitizedKey = sanitizeKey(key);
+		return count(lookup(sanitizeKey(key)));
+	}
+
+	/**
+	 * Get without counting a hit or miss, for the gets made on behalf of a caller.
+	 */
+	private Object lookup(String sanitizedKey) {
+		final NearCache near = nearCache;
+		if (near != null) {
+			Object cached = near.get(sanitizedKey);
+			if (cached != null) {
+				return fromNear(near, cached);
+			}
+		}
+		final GetBatcher batcher = getBatcher;
+		final HotKeyTracker tracker = hotKeyTracker;
+		long start = System.nanoTime();
 		try {
-			final Object obj = client.get(sanitizedKey);
-			if (obj != null) {
-				hits++;
+			final Object obj;
+			if (tracker != null && tracker.sample()) {
+				obj = getSampled(tracker, near, batcher, sanitizedKey);
+			} else if (batcher != null) {
+				obj = batcher.get(sanitizedKey).get(config.getOpTimeout(), TimeUnit.MILLISECONDS);
 			} else {
-				misses++;
-			}			
+				boolean raw = near != null && near.isStoreBytes();
+				MemcachedClient client = client(sanitizedKey);
+				obj = cacheNear(near, sanitizedKey, unchunked(sanitizedKey, raw ? client.get(sanitizedKey, rawTranscoder) : client.get(sanitizedKey), raw));
+			}
 			return obj;
-		} catch (Exception e) {}
+		} catch (Exception e) {
+		} finally {
+			getNanos.record(System.nanoTime() - start);
+		}
 	
 		return null;
 	}
 
+	/**
+	 * Some fields of a bean value: Kryo values are read skipping the other fields, which cuts the
+	 * decode of large beans when only a few scalars are needed. Null on a miss or when the value
+	 * isn't a type. A near cache holding objects isn't filled by this get.
+	 */
+	public Map<String, Object> getFields(String key, Class<?> type, String... fields) {
+		if (key == null || key.length() == 0) {
+			return null;
+		}
+		Set<String> names = new HashSet<String>(Arrays.asList(fields));
+		String sanitizedKey = sanitizeKey(key);
+		final NearCache near = nearCache;
+		if (near != null) {
+			Object cached = near.get(sanitizedKey);
+			if (cached != null) {
+				hits.increment();
+				if (near.isStoreBytes()) {
+					return transcoder.decodeFields((CachedData) cached, type, names);
+				}
+				return type.isInstance(cached) ? KryoProjection.fieldsOf(cached, names) : null;
+			}
+		}
+		long start = System.nanoTime();
+		try {
+			CachedData d = (CachedData) unchunked(sanitizedKey, client(sanitizedKey).get(sanitizedKey, rawTranscoder), true);
+			if (d != null && near != null && near.isStoreBytes()) {
+				near.put(sanitizedKey, d, 0);
+			}
+			count(d);
+			return d == null ? null : transcoder.decodeFields(d, type, names);
+		} catch (Exception e) {
+		} finally {
+			getNanos.record(System.nanoTime() - start);
+		}
+		return null;
+	}
+
 	public Map<String, Object> get(String[] keys) {
 		if (keys == null || keys.length == 0) {
 			return null;
@@ -99,35 +314,316 @@ public class SpyMemcached {
 			map.put(key, null);
 		}
 
+		final NearCache near = nearCache;
+		final HotKeyTracker tracker = hotKeyTracker;
+		long start = System.nanoTime();
+		if (near == null) {
+			sample(tracker, sanitizedKeys);
+			try {
+				map.putAll(getBulk(sanitizedKeys, false).get(config.getOpTimeout(), TimeUnit.MILLISECONDS));
+			} catch (Exception e) {}
+			getBulkNanos.record(System.nanoTime() - start);
+			return map;
+		}
+
+		List<String> missingKeys = lookupNear(near, sanitizedKeys, map);
+		if (missingKeys.isEmpty()) {
+			return map;
+		}
+		sample(tracker, missingKeys);
+		try {
+			Map<String, Object> found = getBulk(missingKeys, near.isStoreBytes()).get(config.getOpTimeout(), TimeUnit.MILLISECONDS);
+			for (Map.Entry<String, Object> entry : found.entrySet()) {
+				map.put(entry.getKey(), cacheNear(near, entry.getKey(), entry.getValue()));
+			}
+		} catch (Exception e) {}
+		getBulkNanos.record(System.nanoTime() - start);
+		return map;
+	}
+
+	/**
+	 * Bulk get like get(String[]) whose values are only decoded by LazyValue.get, on the calling
+	 * thread rather than the memcached I/O thread; values never read are never decoded.
+	 * Missing keys map to null. A near cache holding objects isn't filled by this get.
+	 */
+	public Map<String, LazyValue> getLazy(String[] keys) {
+		if (keys == null || keys.length == 0) {
+			return null;
+		}
+		List<String> sanitizedKeys = sanitizeKeys(keys);
+		final Map<String, LazyValue> map = new HashMap<String, LazyValue>(sanitizedKeys.size());
+		final NearCache near = nearCache;
+		List<String> missingKeys = new ArrayList<String>(sanitizedKeys.size());
+		for (String key : sanitizedKeys) {
+			Object cached = near == null ? null : near.get(key);
+			if (cached == null) {
+				map.put(key, null);
+				missingKeys.add(key);
+			} else {
+				map.put(key, near.isStoreBytes() ? new LazyValue(transcoder, (CachedData) cached) : new LazyValue(cached));
+			}
+		}
+		if (missingKeys.isEmpty()) {
+			return map;
+		}
+		sample(hotKeyTracker, missingKeys);
+		long start = System.nanoTime();
 		try {
-			map.putAll(client.getBulk(sanitizedKeys));
+			Map<String, Object> found = getBulk(missingKeys, true).get(config.getOpTimeout(), TimeUnit.MILLISECONDS);
+			for (Map.Entry<String, Object> entry : found.entrySet()) {
+				if (near != null && near.isStoreBytes()) {
+					near.put(entry.getKey(), entry.getValue(), 0);
+				}
+				map.put(entry.getKey(), new LazyValue(transcoder, (CachedData) entry.getValue()));
+			}
 		} catch (Exception e) {}
+		getBulkNanos.record(System.nanoTime() - start);
 		return map;
 	}
 
+	/**
+	 * Non-blocking get, completed from the spymemcached callback. Completes with null on a miss,
+	 * an error or when memcached doesn't answer within the operation timeout, like get.
+	 */
+	public CompletableFuture<Object> getAsync(final String key) {
+		if (key == null || key.length() == 0) {
+			return CompletableFuture.completedFuture(null);
+		}
+		final String sanitizedKey = sanitizeKey(key);
+		final NearCache near = nearCache;
+		if (near != null) {
+			Object cached = near.get(sanitizedKey);
+			if (cached != null) {
+				hits.increment();
+				return CompletableFuture.completedFuture(fromNear(near, cached));
+			}
+		}
+		final long start = System.nanoTime();
+		final GetBatcher batcher = getBatcher;
+		if (batcher != null) {
+			return withTimeout(batcher.get(sanitizedKey).thenApply(new Function<Object, Object>() {
+				@Override
+				public Object apply(Object obj) {
+					getNanos.record(System.nanoTime() - start);
+					return count(obj);
+				}
+			}), null, "GETASYNC", key);
+		}
+		final CompletableFuture<Object> result = new CompletableFuture<Object>();
+		final boolean raw = near != null && near.isStoreBytes();
+		final Executor executor = raw ? null : config.getDecodeExecutor();
+		try {
+			MemcachedClient client = client(sanitizedKey);
+			GetFuture<?> operationGet = raw || executor != null ? client.asyncGet(sanitizedKey, rawTranscoder) : client.asyncGet(sanitizedKey);
+			operationGet.addListener(new GetCompletionListener() {
+				@Override
+				public void onComplete(GetFuture<?> future) {
+					Object value = null;
+					try {
+						value = future.get();
+					} catch (Exception e) {}
+					CompletableFuture<Object> unchunked = unchunk(sanitizedKey, value, raw || executor != null);
+					if (executor != null) {
+						unchunked = unchunked.thenCompose(new Function<Object, CompletionStage<Object>>() {
+							@Override
+							public CompletionStage<Object> apply(Object d) {
+								return decode((CachedData) d, executor);
+							}
+						});
+					}
+					unchunked.thenAccept(new Consumer<Object>() {
+						@Override
+						public void accept(Object value) {
+							Object obj = null;
+							try {
+								obj = cacheNear(near, sanitizedKey, value);
+							} catch (Exception e) {}
+							getNanos.record(System.nanoTime() - start);
+							result.complete(count(obj));
+						}
+					});
+				}
+			});
+		} catch (Exception e) {
+			result.complete(null);
+		}
+		return withTimeout(result, null, "GETASYNC", key);
+	}
+
+	/**
+	 * Non-blocking bulk get, the map holds every sanitized key, null when missing or on error like get(String[]).
+	 */
+	public CompletableFuture<Map<String, Object>> getBulkAsync(String[] keys) {
+		if (keys == null || keys.length == 0) {
+			return CompletableFuture.completedFuture(null);
+		}
+		List<String> sanitizedKeys = sanitizeKeys(keys);
+		final Map<String, Object> map = new HashMap<String, Object>(sanitizedKeys.size());
+		for (String key : sanitizedKeys) {
+			map.put(key, null);
+		}
+		final NearCache near = nearCache;
+		List<String> missingKeys = near == null ? sanitizedKeys : lookupNear(near, sanitizedKeys, map);
+		if (missingKeys.isEmpty()) {
+			return CompletableFuture.completedFuture(map);
+		}
+
+		final long start = System.nanoTime();
+		CompletableFuture<Map<String, Object>> result = getBulk(missingKeys, near != null && near.isStoreBytes()).thenApply(new Function<Map<String, Object>, Map<String, Object>>() {
+			@Override
+			public Map<String, Object> apply(Map<String, Object> found) {
+				getBulkNanos.record(System.nanoTime() - start);
+				Map<String, Object> values = new HashMap<String, Object>(map);
+				for (Map.Entry<String, Object> entry : found.entrySet()) {
+					values.put(entry.getKey(), cacheNear(near, entry.getKey(), entry.getValue()));
+				}
+				return values;
+			}
+		});
+		return withTimeout(result, new HashMap<String, Object>(map), "GETBULKASYNC", sanitizedKeys);
+	}
+
 	public boolean invalidate(String key) {
 		if (key == null) {
 			return false;
 		}
 		String sanitizedKey = sanitizeKey(key);
+		invalidateNear(sanitizedKey);
+		long start = System.nanoTime();
 		try {
-			final Future<Boolean> operationDelete = client.delete(sanitizedKey);
+			final Future<Boolean> operationDelete = client(sanitizedKey).delete(sanitizedKey);
 			return operationDelete.get();
-		} catch (Exception e) {}
+		} catch (Exception e) {
+		} finally {
+			deleteNanos.record(System.nanoTime() - start);
+		}
 		return false;
 	}
 
+	/**
+	 * Non-blocking invalidate, completes with false on error or timeout like invalidate.
+	 */
+	public CompletableFuture<Boolean> deleteAsync(final String key) {
+		if (key == null) {
+			return CompletableFuture.completedFuture(false);
+		}
+		String sanitizedKey = sanitizeKey(key);
+		invalidateNear(sanitizedKey);
+		final CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+		final long start = System.nanoTime();
+		try {
+			client(sanitizedKey).delete(sanitizedKey).addListener(new OperationCompletionListener() {
+				@Override
+				public void onComplete(OperationFuture<?> future) {
+					deleteNanos.record(System.nanoTime() - start);
+					try {
+						result.complete((Boolean) future.get());
+					} catch (Exception e) {
+						result.complete(false);
+					}
+				}
+			});
+		} catch (Exception e) {
+			result.complete(false);
+		}
+		return withTimeout(result, false, "DELETEASYNC", key);
+	}
+
 	public void asyncInvalidate(String key) {
 		if (key == null) {
 			return;
 		}
 		String sanitizedKey = sanitizeKey(key);
-		client.delete(sanitizedKey);
+		invalidateNear(sanitizedKey);
+		client(sanitizedKey).delete(sanitizedKey);
 		if (LOGGER.isDebugEnabled()) {
 			LOGGER.debug(String.format("SPYMemcached ASYNCDELETE[%s]", key));
 		}
 	}
 
+	/**
+	 * When positive, getOrLoad takes a memcached add lock held at most this long so a
+	 * value is loaded once across nodes; other nodes wait for the value meanwhile.
+	 */
+	public void setLoadLockSeconds(int loadLockSeconds) {
+		this.loadLockSeconds = loadLockSeconds;
+	}
+
+	/**
+	 * Get key, or on a miss load it and put it for exp seconds. Concurrent misses on the same
+	 * sanitized key share a single loader call and a single set; a null result isn't cached.
+	 * Loader exceptions are thrown to every caller waiting on that load.
+	 */
+	public Object getOrLoad(String key, int exp, Callable<?> loader) throws Exception {
+		Object obj = get(key);
+		if (obj != null || key == null || key.length() == 0) {
+			return obj;
+		}
+		String sanitizedKey = sanitizeKey(key);
+		CompletableFuture<Object> load = new CompletableFuture<Object>();
+		CompletableFuture<Object> inFlight = loads.putIfAbsent(sanitizedKey, load);
+		if (inFlight != null) {
+			try {
+				return inFlight.get();
+			} catch (ExecutionException e) {
+				throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+			}
+		}
+		try {
+			// a load may have completed between our miss and taking the slot
+			obj = lookup(sanitizedKey);
+			if (obj == null) {
+				obj = load(key, sanitizedKey, exp, loader);
+			}
+			load.complete(obj);
+			return obj;
+		} catch (Throwable t) {
+			load.completeExceptionally(t);
+			throw t;
+		} finally {
+			loads.remove(sanitizedKey, load);
+		}
+	}
+
+	private Object load(String key, String sanitizedKey, int exp, Callable<?> loader) throws Exception {
+		final int lockSeconds = loadLockSeconds;
+		if (lockSeconds <= 0) {
+			return loadAndPut(key, exp, loader);
+		}
+		String lockKey = KeyEncoder.derive(sanitizedKey, LOAD_LOCK_NAME);
+		boolean locked = false;
+		try {
+			locked = client(lockKey).add(lockKey, lockSeconds, Boolean.TRUE).get();
+		} catch (Exception e) {
+			LOGGER.warn(String.format("SPYMemcached LOADLOCK[%s] Exception : %s", key, e.getMessage()));
+		}
+		if (locked) {
+			try {
+				return loadAndPut(key, exp, loader);
+			} finally {
+				client(lockKey).delete(lockKey);
+			}
+		}
+		// another node is loading, wait for its value until the lock expires
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(lockSeconds);
+		while (System.currentTimeMillis() < deadline) {
+			Thread.sleep(LOAD_LOCK_POLL_MILLIS);
+			Object obj = lookup(sanitizedKey);
+			if (obj != null) {
+				return obj;
+			}
+		}
+		return loadAndPut(key, exp, loader);
+	}
+
+	private Object loadAndPut(String key, int exp, Callable<?> loader) throws Exception {
+		Object obj = loader.call();
+		if (obj != null) {
+			put(obj, key, exp);
+		}
+		return obj;
+	}
+
 	public boolean isInitialized() {
 		return initialized;
 	}
@@ -137,45 +633,78 @@ public class SpyMemcached {
 			return false;
 		}
 		String sanitizedKey = sanitizeKey(key);
+		long start = System.nanoTime();
 		try {
-			final Future<Boolean> operationSet = client.set(sanitizedKey, exp, obj);
-			operationSet.get();
+			final Future<Boolean> operationSet = set(sanitizedKey, exp, obj, true);
+			return operationSet.get();
 		} catch (Exception e) {
+				invalidateNear(sanitizedKey);
 				LOGGER.error(String.format("SPYMemcached PUT[%s] Exception : %s", key, e.getMessage()));
+		} finally {
+			setNanos.record(System.nanoTime() - start);
 		}
 		return false;
 	}
 
+	/**
+	 * Non-blocking put, completes with the memcached result, false on error or timeout like put.
+	 */
+	public CompletableFuture<Boolean> putAsync(Object obj, final String key, int exp) {
+		if (key == null) {
+			return CompletableFuture.completedFuture(false);
+		}
+		final String sanitizedKey = sanitizeKey(key);
+		final CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+		final long start = System.nanoTime();
+		try {
+			set(sanitizedKey, exp, obj, true).addListener(new OperationCompletionListener() {
+				@Override
+				public void onComplete(OperationFuture<?> future) {
+					setNanos.record(System.nanoTime() - start);
+					try {
+						result.complete((Boolean) future.get());
+					} catch (Exception e) {
+						invalidateNear(sanitizedKey);
+						LOGGER.error(String.format("SPYMemcached PUTASYNC[%s] Exception : %s", key, e.getMessage()));
+						result.complete(false);
+					}
+				}
+			});
+		} catch (Exception e) {
+			invalidateNear(sanitizedKey);
+			LOGGER.error(String.format("SPYMemcached PUTASYNC[%s] Exception : %s", key, e.getMessage()));
+			result.complete(false);
+		}
+		return withTimeout(result, false, "PUTASYNC", key);
+	}
+
 	public void asyncPut(Object obj, String key, int exp) {
 		if (key == null) {
 			return;
 		}
 		String sanitizedKey = sanitizeKey(key);
-		client.set(sanitizedKey, exp, obj);
+		set(sanitizedKey, exp, obj, true);
 		if (LOGGER.isDebugEnabled()) {
 			LOGGER.debug(String.format("SPYMemcached ASYNCPUT[%s %d]", key, exp));
 		}
 	}
 
 	public long incr(String key, int delta) {
-		return client.incr(key, delta);
+		String sanitizedKey = sanitizeKey(key);
+		long start = System.nanoTime();
+		try {
+			return client(sanitizedKey).incr(sanitizedKey, delta);
+		} finally {
+			incrNanos.record(System.nanoTime() - start);
+		}
 	}
 
 	public long getCounter(String key) {
-		return client.incr(key, 0);
+		return incr(key, 0);
 	}
 
 	private String sanitizeKey(String key) {
-		try {
-			String sanitizedKey = URLEncoder.encode(key, "UTF-8");
-			if (sanitizedKey.length() > KEY_MAX_SIZE) {
-				LOGGER.warn(String.format("SPYMemcached sanitizeKey[%s] too long key", key));
-				sanitizedKey = sanitizedKey.substring(0, KEY_MAX_SIZE);
-			}
-			return sanitizedKey;
-		} catch (UnsupportedEncodingException uee) {
-			return key;
-		}
+		return KeyEncoder.encode(key);
 	}
 
 	private List<String> sanitizeKeys(String[] keys) {
@@ -187,7 +716,457 @@ public class SpyMemcached {
 	}
 
 	public boolean set(String key, int exp, Object o) {
-		return client.set(key, exp, o).isDone();
+		return set(sanitizeKey(key), exp, o, false).isDone();
+	}
+
+	/**
+	 * Write to memcached and keep the near cache coherent, encoding only once when it stores bytes.
+	 */
+	private OperationFuture<Boolean> set(final String sanitizedKey, final int exp, Object obj, boolean cacheNear) {
+		final NearCache near = nearCache;
+		final HotKeyTracker tracker = hotKeyTracker;
+		final boolean sampled = tracker != null && tracker.sample();
+		if (!sampled && chunkSize == 0 && (near == null || !near.isStoreBytes())) {
+			if (near != null) {
+				if (cacheNear) {
+					near.put(sanitizedKey, obj, exp);
+				} else {
+					near.invalidate(sanitizedKey);
+				}
+			}
+			return client(sanitizedKey).set(sanitizedKey, exp, obj);
+		}
+		// encode here rather than in the client: same single encode, and the size is known
+		CachedData d = transcoder.encode(obj);
+		if (sampled) {
+			tracker.record(sanitizedKey, d.getData().length);
+		}
+		if (chunkSize > 0 && d.getData().length > chunkSize) {
+			if (near == null) {
+				return setChunked(sanitizedKey, exp, d);
+			}
+			// the chunks may not all be stored : cached near once the manifest is
+			near.invalidate(sanitizedKey);
+			OperationFuture<Boolean> future = setChunked(sanitizedKey, exp, d);
+			if (cacheNear) {
+				final Object nearValue = near.isStoreBytes() ? d : obj;
+				future.addListener(new OperationCompletionListener() {
+					@Override
+					public void onComplete(OperationFuture<?> future) {
+						if (future.getStatus().isSuccess()) {
+							near.put(sanitizedKey, nearValue, exp);
+						}
+					}
+				});
+			}
+			return future;
+		}
+		if (near != null) {
+			if (cacheNear) {
+				near.put(sanitizedKey, near.isStoreBytes() ? d : obj, exp);
+			} else {
+				near.invalidate(sanitizedKey);
+			}
+		}
+		return client(sanitizedKey).set(sanitizedKey, exp, d, rawTranscoder);
+	}
+
+	/**
+	 * Write the chunks then the manifest, the future is the manifest set. Gets seeing the manifest
+	 * before every chunk, or after a chunk was evicted or overwritten, are misses.
+	 */
+	private OperationFuture<Boolean> setChunked(String sanitizedKey, int exp, CachedData d) {
+		ChunkManifest manifest = ChunkManifest.of(d, chunkSize);
+		List<CachedData> chunks = manifest.split(d, chunkSize);
+		for (int i = 0; i < chunks.size(); i++) {
+			String chunkKey = ChunkManifest.chunkKey(sanitizedKey, i);
+			client(chunkKey).set(chunkKey, exp, chunks.get(i), rawTranscoder);
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug(String.format("SPYMemcached SETCHUNKED[%s] %s", sanitizedKey, manifest));
+		}
+		return client(sanitizedKey).set(sanitizedKey, exp, manifest.toCachedData(), rawTranscoder);
+	}
+
+	private ChunkManifest manifest(Object value) {
+		if (value instanceof ChunkManifest) {
+			return (ChunkManifest) value;
+		}
+		return value instanceof CachedData ? ChunkManifest.from((CachedData) value) : null;
+	}
+
+	/**
+	 * Value itself, or the value joined from its chunks when it's a manifest: CachedData when raw,
+	 * decoded otherwise, null when the chunks are incomplete. Never completes exceptionally.
+	 */
+	private CompletableFuture<Object> unchunk(final String sanitizedKey, Object value, final boolean raw) {
+		final ChunkManifest manifest = manifest(value);
+		if (manifest == null) {
+			return CompletableFuture.completedFuture(value);
+		}
+		return fetchBulk(manifest.chunkKeys(sanitizedKey), true).thenApply(new Function<Map<String, Object>, Object>() {
+			@Override
+			public Object apply(Map<String, Object> chunks) {
+				try {
+					CachedData d = manifest.join(sanitizedKey, chunks, transcoder.getMaxSize());
+					if (d == null) {
+						if (LOGGER.isDebugEnabled()) {
+							LOGGER.debug(String.format("SPYMemcached GETCHUNKED[%s] incomplete %s", sanitizedKey, manifest));
+						}
+						return null;
+					}
+					return raw ? d : transcoder.decode(d);
+				} catch (Exception e) {
+					LOGGER.error(String.format("SPYMemcached GETCHUNKED[%s] Exception : %s", sanitizedKey, e.getMessage()));
+					return null;
+				}
+			}
+		});
+	}
+
+	private Object unchunked(String sanitizedKey, Object value, boolean raw) throws Exception {
+		if (manifest(value) == null) {
+			return value;
+		}
+		return unchunk(sanitizedKey, value, raw).get(config.getOpTimeout(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Get recording the key, and its value size unless the get goes through the batcher.
+	 */
+	private Object getSampled(HotKeyTracker tracker, NearCache near, GetBatcher batcher, String sanitizedKey) throws Exception {
+		if (batcher != null) {
+			tracker.record(sanitizedKey, -1);
+			return batcher.get(sanitizedKey).get(config.getOpTimeout(), TimeUnit.MILLISECONDS);
+		}
+		CachedData d = (CachedData) unchunked(sanitizedKey, client(sanitizedKey).get(sanitizedKey, rawTranscoder), true);
+		tracker.record(sanitizedKey, d == null ? -1 : d.getData().length);
+		if (near != null && near.isStoreBytes()) {
+			return cacheNear(near, sanitizedKey, d);
+		}
+		return cacheNear(near, sanitizedKey, d == null ? null : transcoder.decode(d));
+	}
+
+	private void sample(HotKeyTracker tracker, List<String> sanitizedKeys) {
+		if (tracker == null) {
+			return;
+		}
+		for (String key : sanitizedKeys) {
+			if (tracker.sample()) {
+				tracker.record(key, -1);
+			}
+		}
+	}
+
+	/**
+	 * One bulk get for a batch of single-key gets, fanned back out to the waiting callers. Every
+	 * caller is completed, with null when the bulk get or the decode of its value fails.
+	 */
+	private void fetchBatch(final Map<String, CompletableFuture<Object>> batch) {
+		final NearCache near = nearCache;
+		getBulk(batch.keySet(), near != null && near.isStoreBytes()).whenComplete(new BiConsumer<Map<String, Object>, Throwable>() {
+			@Override
+			public void accept(Map<String, Object> found, Throwable t) {
+				if (t != null) {
+					LOGGER.error(String.format("SPYMemcached GETBATCH Exception : %s", t.getMessage()));
+				}
+				for (Map.Entry<String, CompletableFuture<Object>> entry : batch.entrySet()) {
+					Object value = null;
+					if (found != null) {
+						try {
+							value = cacheNear(near, entry.getKey(), found.get(entry.getKey()));
+						} catch (RuntimeException | AssertionError e) {
+							// a corrupt value, the TranscoderUtils length checks are asserts
+							invalidateNear(entry.getKey());
+							LOGGER.error(String.format("SPYMemcached GETBATCH[%s] Exception : %s", entry.getKey(), e.getMessage()));
+						}
+					}
+					entry.getValue().complete(value);
+				}
+			}
+		});
+	}
+
+	/**
+	 * fetchBulk with the chunked values joined, incomplete ones are absent. With a decode executor
+	 * values are fetched raw and decoded on it.
+	 */
+	private CompletableFuture<Map<String, Object>> getBulk(Collection<String> sanitizedKeys, boolean raw) {
+		final Executor executor = raw ? null : config.getDecodeExecutor();
+		CompletableFuture<Map<String, Object>> found = unchunkAll(fetchBulk(sanitizedKeys, raw || executor != null), raw || executor != null);
+		if (executor == null) {
+			return found;
+		}
+		return found.thenCompose(new Function<Map<String, Object>, CompletionStage<Map<String, Object>>>() {
+			@Override
+			public CompletionStage<Map<String, Object>> apply(Map<String, Object> values) {
+				return decodeAll(values, executor);
+			}
+		});
+	}
+
+	private CompletableFuture<Map<String, Object>> unchunkAll(CompletableFuture<Map<String, Object>> fetched, final boolean raw) {
+		return fetched.thenCompose(new Function<Map<String, Object>, CompletionStage<Map<String, Object>>>() {
+			@Override
+			public CompletionStage<Map<String, Object>> apply(final Map<String, Object> found) {
+				List<CompletableFuture<Void>> joins = null;
+				for (Map.Entry<String, Object> entry : found.entrySet()) {
+					if (manifest(entry.getValue()) == null) {
+						continue;
+					}
+					if (joins == null) {
+						joins = new ArrayList<CompletableFuture<Void>>();
+					}
+					final String key = entry.getKey();
+					joins.add(unchunk(key, entry.getValue(), raw).thenAccept(new Consumer<Object>() {
+						@Override
+						public void accept(Object value) {
+							update(found, key, value);
+						}
+					}));
+				}
+				return joins == null ? CompletableFuture.completedFuture(found) : allOf(joins, found);
+			}
+		});
+	}
+
+	/**
+	 * Decode the raw values in place on executor: values of at least parallelDecodeSize bytes one
+	 * per task, the others by tasks of parallelDecodeBatch values. Values failing to decode are removed.
+	 */
+	CompletableFuture<Map<String, Object>> decodeAll(final Map<String, Object> found, Executor executor) {
+		if (found.isEmpty()) {
+			return CompletableFuture.completedFuture(found);
+		}
+		int parallelDecodeSize = config.getParallelDecodeSize();
+		int parallelDecodeBatch = Math.max(1, config.getParallelDecodeBatch());
+		List<CompletableFuture<Void>> decodes = new ArrayList<CompletableFuture<Void>>();
+		List<String> batch = new ArrayList<String>(parallelDecodeBatch);
+		// the tasks update found while it's walked, walk a copy
+		for (Map.Entry<String, Object> entry : new ArrayList<Map.Entry<String, Object>>(found.entrySet())) {
+			if (((CachedData) entry.getValue()).getData().length >= parallelDecodeSize) {
+				decodes.add(decodeAsync(found, Collections.singletonList(entry.getKey()), executor));
+				continue;
+			}
+			batch.add(entry.getKey());
+			if (batch.size() == parallelDecodeBatch) {
+				decodes.add(decodeAsync(found, batch, executor));
+				batch = new ArrayList<String>(parallelDecodeBatch);
+			}
+		}
+		if (!batch.isEmpty()) {
+			decodes.add(decodeAsync(found, batch, executor));
+		}
+		return allOf(decodes, found);
+	}
+
+	private CompletableFuture<Void> decodeAsync(final Map<String, Object> found, final List<String> keys, Executor executor) {
+		final long submitted = System.nanoTime();
+		Runnable decode = new Runnable() {
+			@Override
+			public void run() {
+				decodeQueueNanos.record(System.nanoTime() - submitted);
+				for (String key : keys) {
+					Object d = found.get(key);
+					update(found, key, d == null ? null : decode((CachedData) d));
+				}
+			}
+		};
+		try {
+			return CompletableFuture.runAsync(decode, executor);
+		} catch (RejectedExecutionException e) {
+			decode.run();
+			return CompletableFuture.completedFuture(null);
+		}
+	}
+
+	/**
+	 * Single value decoded on executor when it's at least parallelDecodeSize bytes, in place otherwise.
+	 */
+	private CompletableFuture<Object> decode(final CachedData d, Executor executor) {
+		if (d == null || d.getData().length < config.getParallelDecodeSize()) {
+			return CompletableFuture.completedFuture(d == null ? null : decode(d));
+		}
+		final long submitted = System.nanoTime();
+		try {
+			return CompletableFuture.supplyAsync(new Supplier<Object>() {
+				@Override
+				public Object get() {
+					decodeQueueNanos.record(System.nanoTime() - submitted);
+					return decode(d);
+				}
+			}, executor);
+		} catch (RejectedExecutionException e) {
+			return CompletableFuture.completedFuture(decode(d));
+		}
+	}
+
+	private Object decode(CachedData d) {
+		try {
+			return transcoder.decode(d);
+		} catch (Exception e) {
+			LOGGER.error(String.format("SPYMemcached DECODE Exception : %s", e.getMessage()));
+			return null;
+		}
+	}
+
+	private static void update(Map<String, Object> found, String key, Object value) {
+		if (value == null) {
+			found.remove(key);
+		} else {
+			found.put(key, value);
+		}
+	}
+
+	private static CompletableFuture<Map<String, Object>> allOf(List<CompletableFuture<Void>> futures, final Map<String, Object> found) {
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).thenApply(new Function<Void, Map<String, Object>>() {
+			@Override
+			public Map<String, Object> apply(Void v) {
+				return found;
+			}
+		});
+	}
+
+	/**
+	 * Bulk get split per client stripe, completed once every stripe answered. Values are CachedData
+	 * when raw, keys missing or failing are absent; the future never completes exceptionally.
+	 */
+	private CompletableFuture<Map<String, Object>> fetchBulk(Collection<String> sanitizedKeys, boolean raw) {
+		final CompletableFuture<Map<String, Object>> result = new CompletableFuture<Map<String, Object>>();
+		final Map<String, Object> found = new ConcurrentHashMap<String, Object>(sanitizedKeys.size());
+		List<Collection<String>> stripes = new ArrayList<Collection<String>>();
+		if (clients.length == 1) {
+			stripes.add(sanitizedKeys);
+		} else {
+			List<List<String>> keysByClient = new ArrayList<List<String>>(clients.length);
+			for (int i = 0; i < clients.length; i++) {
+				keysByClient.add(new ArrayList<String>());
+			}
+			for (String key : sanitizedKeys) {
+				keysByClient.get(stripe(key)).add(key);
+			}
+			stripes.addAll(keysByClient);
+		}
+		final AtomicInteger pending = new AtomicInteger(stripes.size());
+		for (int i = 0; i < stripes.size(); i++) {
+			Collection<String> keys = stripes.get(i);
+			if (keys.isEmpty()) {
+				if (pending.decrementAndGet() == 0) {
+					result.complete(found);
+				}
+				continue;
+			}
+			try {
+				BulkFuture<? extends Map<String, ?>> operationGet = raw ? clients[i].asyncGetBulk(keys, rawTranscoder) : clients[i].asyncGetBulk(keys);
+				operationGet.addListener(new BulkGetCompletionListener() {
+					@Override
+					public void onComplete(BulkGetFuture<?> future) {
+						try {
+							found.putAll(future.get());
+						} catch (Exception e) {}
+						if (pending.decrementAndGet() == 0) {
+							result.complete(found);
+						}
+					}
+				});
+			} catch (Exception e) {
+				if (pending.decrementAndGet() == 0) {
+					result.complete(found);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Client owning a key, the same key always goes through the same client so its operations stay ordered.
+	 */
+	private MemcachedClient client(String sanitizedKey) {
+		return clients[stripe(sanitizedKey)];
+	}
+
+	int stripe(String sanitizedKey) {
+		if (clients.length == 1) {
+			return 0;
+		}
+		int h = sanitizedKey.hashCode();
+		return ((h ^ (h >>> 16)) & Integer.MAX_VALUE) % clients.length;
+	}
+
+	private Object count(Object obj) {
+		if (obj != null) {
+			hits.increment();
+		} else {
+			misses.increment();
+		}
+		return obj;
+	}
+
+	/**
+	 * Decoded value of a near cache entry.
+	 */
+	private Object fromNear(NearCache near, Object cached) {
+		return near.isStoreBytes() ? transcoder.decode((CachedData) cached) : cached;
+	}
+
+	/**
+	 * Keep a value read from memcached in the near cache and return it decoded.
+	 */
+	private Object cacheNear(NearCache near, String sanitizedKey, Object value) {
+		if (near == null) {
+			return value;
+		}
+		near.put(sanitizedKey, value, 0);
+		return value == null ? null : fromNear(near, value);
+	}
+
+	/**
+	 * Fill map with the near cache hits, returns the keys to fetch from memcached.
+	 */
+	private List<String> lookupNear(NearCache near, List<String> sanitizedKeys, Map<String, Object> map) {
+		List<String> missingKeys = new ArrayList<String>(sanitizedKeys.size());
+		for (String key : sanitizedKeys) {
+			Object cached = near.get(key);
+			if (cached == null) {
+				missingKeys.add(key);
+			} else {
+				map.put(key, fromNear(near, cached));
+			}
+		}
+		return missingKeys;
+	}
+
+	/**
+	 * Complete future with fallback when memcached doesn't answer within the client operation
+	 * timeout, the synchronous methods give up after the same delay. key is only formatted for
+	 * the debug log of a timeout.
+	 */
+	private <T> CompletableFuture<T> withTimeout(final CompletableFuture<T> future, final T fallback, final String operation, final Object key) {
+		if (future.isDone()) {
+			return future;
+		}
+		final ScheduledFuture<?> timeout = SCHEDULER.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (future.complete(fallback) && LOGGER.isDebugEnabled()) {
+					LOGGER.debug(String.format("SPYMemcached %s[%s] timeout", operation, key));
+				}
+			}
+		}, config.getOpTimeout(), TimeUnit.MILLISECONDS);
+		future.whenComplete(new BiConsumer<T, Throwable>() {
+			@Override
+			public void accept(T value, Throwable t) {
+				timeout.cancel(false);
+			}
+		});
+		return future;
+	}
+
+	private void invalidateNear(String sanitizedKey) {
+		final NearCache near = nearCache;
+		if (near != null) {
+			near.invalidate(sanitizedKey);
+		}
 	}
 		
 	private List<InetSocketAddress> getAddresses(String s) {
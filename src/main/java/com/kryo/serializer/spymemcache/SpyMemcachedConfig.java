@@ -0,0 +1,281 @@
+package com.kryo.serializer.spymemcache;
+
+import java.util.concurrent.Executor;
+
+import net.spy.memcached.ConnectionFactory;
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.ConnectionFactoryBuilder.Locator;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.DefaultConnectionFactory;
+import net.spy.memcached.FailureMode;
+import net.spy.memcached.HashAlgorithm;
+import net.spy.memcached.ops.ArrayOperationQueueFactory;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Connection settings used by SpyMemcached.init, defaults match the previous hard-coded
+ * client (text protocol, native hash, array mod locator, Cancel failure mode). The binary
+ * protocol pipelines bulk gets as quiet gets and has a smaller framing than text.
+ */
+public class SpyMemcachedConfig {
+
+	/** below the 1MB memcached item size once the key, item header and chunk version are added */
+	public static final int DEFAULT_CHUNK_SIZE = 1000 * 1024;
+	public static final int DEFAULT_MAX_VALUE_SIZE = 32 * 1024 * 1024;
+	public static final int DEFAULT_PARALLEL_DECODE_SIZE = 32 * 1024;
+	public static final int DEFAULT_PARALLEL_DECODE_BATCH = 32;
+
+	private int clientCount = 1;
+	private Protocol protocol = Protocol.TEXT;
+	private HashAlgorithm hashAlgorithm = DefaultConnectionFactory.DEFAULT_HASH;
+	private Locator locator = Locator.ARRAY_MOD;
+	private FailureMode failureMode = FailureMode.Cancel;
+	private int opQueueLength = DefaultConnectionFactory.DEFAULT_OP_QUEUE_LEN;
+	private int readQueueLength = 0;
+	private int writeQueueLength = 0;
+	private long opQueueMaxBlockTime = DefaultConnectionFactory.DEFAULT_OP_QUEUE_MAX_BLOCK_TIME;
+	private int readBufferSize = DefaultConnectionFactory.DEFAULT_READ_BUFFER_SIZE;
+	private boolean useNagle = false;
+	private long opTimeout = DefaultConnectionFactory.DEFAULT_OPERATION_TIMEOUT;
+	private long maxReconnectDelay = DefaultConnectionFactory.DEFAULT_MAX_RECONNECT_DELAY;
+	private int timeoutExceptionThreshold = DefaultConnectionFactory.DEFAULT_MAX_TIMEOUTEXCEPTION_THRESHOLD;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private int maxValueSize = DEFAULT_MAX_VALUE_SIZE;
+	private Executor decodeExecutor = null;
+	private int parallelDecodeSize = DEFAULT_PARALLEL_DECODE_SIZE;
+	private int parallelDecodeBatch = DEFAULT_PARALLEL_DECODE_BATCH;
+
+	public int getClientCount() {
+		return clientCount;
+	}
+
+	/**
+	 * MemcachedClient instances, each with its own I/O thread and connections. Keys are
+	 * striped across them by hash so a given key always uses the same client.
+	 */
+	public SpyMemcachedConfig setClientCount(int clientCount) {
+		this.clientCount = clientCount;
+		return this;
+	}
+
+	public Protocol getProtocol() {
+		return protocol;
+	}
+
+	public SpyMemcachedConfig setProtocol(Protocol protocol) {
+		this.protocol = protocol;
+		return this;
+	}
+
+	public HashAlgorithm getHashAlgorithm() {
+		return hashAlgorithm;
+	}
+
+	/**
+	 * Key hashing, KETAMA_HASH goes with the CONSISTENT locator.
+	 */
+	public SpyMemcachedConfig setHashAlgorithm(HashAlgorithm hashAlgorithm) {
+		this.hashAlgorithm = hashAlgorithm;
+		return this;
+	}
+
+	public Locator getLocator() {
+		return locator;
+	}
+
+	public SpyMemcachedConfig setLocator(Locator locator) {
+		this.locator = locator;
+		return this;
+	}
+
+	public FailureMode getFailureMode() {
+		return failureMode;
+	}
+
+	public SpyMemcachedConfig setFailureMode(FailureMode failureMode) {
+		this.failureMode = failureMode;
+		return this;
+	}
+
+	public int getOpQueueLength() {
+		return opQueueLength;
+	}
+
+	/**
+	 * Operations waiting to be written per node, callers block up to opQueueMaxBlockTime when it's full.
+	 */
+	public SpyMemcachedConfig setOpQueueLength(int opQueueLength) {
+		this.opQueueLength = opQueueLength;
+		return this;
+	}
+
+	public int getReadQueueLength() {
+		return readQueueLength;
+	}
+
+	/**
+	 * Operations waiting for their response per node, 0 for unbounded (the default).
+	 */
+	public SpyMemcachedConfig setReadQueueLength(int readQueueLength) {
+		this.readQueueLength = readQueueLength;
+		return this;
+	}
+
+	public int getWriteQueueLength() {
+		return writeQueueLength;
+	}
+
+	/**
+	 * Operations being written per node, 0 for unbounded (the default).
+	 */
+	public SpyMemcachedConfig setWriteQueueLength(int writeQueueLength) {
+		this.writeQueueLength = writeQueueLength;
+		return this;
+	}
+
+	public long getOpQueueMaxBlockTime() {
+		return opQueueMaxBlockTime;
+	}
+
+	public SpyMemcachedConfig setOpQueueMaxBlockTime(long opQueueMaxBlockTime) {
+		this.opQueueMaxBlockTime = opQueueMaxBlockTime;
+		return this;
+	}
+
+	public int getReadBufferSize() {
+		return readBufferSize;
+	}
+
+	public SpyMemcachedConfig setReadBufferSize(int readBufferSize) {
+		this.readBufferSize = readBufferSize;
+		return this;
+	}
+
+	public boolean isUseNagle() {
+		return useNagle;
+	}
+
+	public SpyMemcachedConfig setUseNagle(boolean useNagle) {
+		this.useNagle = useNagle;
+		return this;
+	}
+
+	public long getOpTimeout() {
+		return opTimeout;
+	}
+
+	/**
+	 * Milliseconds the synchronous methods wait, also the timeout of the async futures.
+	 */
+	public SpyMemcachedConfig setOpTimeout(long opTimeout) {
+		this.opTimeout = opTimeout;
+		return this;
+	}
+
+	public long getMaxReconnectDelay() {
+		return maxReconnectDelay;
+	}
+
+	public SpyMemcachedConfig setMaxReconnectDelay(long maxReconnectDelay) {
+		this.maxReconnectDelay = maxReconnectDelay;
+		return this;
+	}
+
+	public int getTimeoutExceptionThreshold() {
+		return timeoutExceptionThreshold;
+	}
+
+	public SpyMemcachedConfig setTimeoutExceptionThreshold(int timeoutExceptionThreshold) {
+		this.timeoutExceptionThreshold = timeoutExceptionThreshold;
+		return this;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Encoded values larger than this are stored in chunks of this size, under keys derived
+	 * from the value key, and read back with one bulk get.
+	 */
+	public SpyMemcachedConfig setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+		return this;
+	}
+
+	public int getMaxValueSize() {
+		return maxValueSize;
+	}
+
+	/**
+	 * Largest encoded value accepted, at or below chunkSize disables chunking.
+	 */
+	public SpyMemcachedConfig setMaxValueSize(int maxValueSize) {
+		this.maxValueSize = maxValueSize;
+		return this;
+	}
+
+	public Executor getDecodeExecutor() {
+		return decodeExecutor;
+	}
+
+	/**
+	 * Executor decoding the values of getAsync and of the bulk gets (ForkJoinPool.commonPool(),
+	 * a virtual thread per task executor...), null (default) decodes on the thread completing the get.
+	 */
+	public SpyMemcachedConfig setDecodeExecutor(Executor decodeExecutor) {
+		this.decodeExecutor = decodeExecutor;
+		return this;
+	}
+
+	public int getParallelDecodeSize() {
+		return parallelDecodeSize;
+	}
+
+	/**
+	 * With a decode executor, values of at least this many bytes are decoded by a task of their own.
+	 */
+	public SpyMemcachedConfig setParallelDecodeSize(int parallelDecodeSize) {
+		this.parallelDecodeSize = parallelDecodeSize;
+		return this;
+	}
+
+	public int getParallelDecodeBatch() {
+		return parallelDecodeBatch;
+	}
+
+	/**
+	 * With a decode executor, smaller values of a bulk get are decoded by tasks of this many values.
+	 */
+	public SpyMemcachedConfig setParallelDecodeBatch(int parallelDecodeBatch) {
+		this.parallelDecodeBatch = parallelDecodeBatch;
+		return this;
+	}
+
+	boolean isChunking() {
+		return chunkSize > 0 && maxValueSize > chunkSize;
+	}
+
+	ConnectionFactory newConnectionFactory(Transcoder<Object> transcoder) {
+		ConnectionFactoryBuilder builder = new ConnectionFactoryBuilder()
+				.setProtocol(protocol)
+				.setHashAlg(hashAlgorithm)
+				.setLocatorType(locator)
+				.setFailureMode(failureMode)
+				.setOpQueueFactory(new ArrayOperationQueueFactory(opQueueLength))
+				.setOpQueueMaxBlockTime(opQueueMaxBlockTime)
+				.setReadBufferSize(readBufferSize)
+				.setUseNagleAlgorithm(useNagle)
+				.setOpTimeout(opTimeout)
+				.setMaxReconnectDelay(maxReconnectDelay)
+				.setTimeoutExceptionThreshold(timeoutExceptionThreshold)
+				.setTranscoder(transcoder);
+		if (readQueueLength > 0) {
+			builder.setReadOpQueueFactory(new ArrayOperationQueueFactory(readQueueLength));
+		}
+		if (writeQueueLength > 0) {
+			builder.setWriteOpQueueFactory(new ArrayOperationQueueFactory(writeQueueLength));
+		}
+		return builder.build();
+	}
+}
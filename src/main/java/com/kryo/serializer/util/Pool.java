@@ -0,0 +1,81 @@
+package com.kryo.serializer.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free and allocation-free pool of reusable, non thread-safe objects. Borrowing never
+ * blocks: an empty pool creates a new object, and objects released while all maxIdle slots
+ * are taken are dropped. Nothing is tied to a thread, so thousands of short-lived or virtual
+ * threads share a few instances.
+ */
+public abstract class Pool<T> {
+
+	private final AtomicReferenceArray<T> slots;
+	private final AtomicInteger created = new AtomicInteger();
+
+	protected Pool(int maxIdle) {
+		this.slots = new AtomicReferenceArray<T>(Math.max(1, maxIdle));
+	}
+
+	public T borrow() {
+		int length = slots.length();
+		int start = start(length);
+		for (int i = 0; i < length; i++) {
+			int index = (start + i) % length;
+			T t = slots.get(index);
+			if (t != null && slots.compareAndSet(index, t, null)) {
+				return t;
+			}
+		}
+		created.incrementAndGet();
+		return create();
+	}
+
+	public void release(T t) {
+		if (t == null || !reset(t)) {
+			return;
+		}
+		int length = slots.length();
+		int start = start(length);
+		for (int i = 0; i < length; i++) {
+			int index = (start + i) % length;
+			if (slots.get(index) == null && slots.compareAndSet(index, null, t)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Instances created since the pool started.
+	 */
+	public int getCreated() {
+		return created.get();
+	}
+
+	public int getIdle() {
+		int idle = 0;
+		for (int i = 0; i < slots.length(); i++) {
+			if (slots.get(i) != null) {
+				idle++;
+			}
+		}
+		return idle;
+	}
+
+	protected abstract T create();
+
+	/**
+	 * Prepare a released object for reuse, false drops it instead.
+	 */
+	protected boolean reset(T t) {
+		return true;
+	}
+
+	/**
+	 * Spread threads over the slots to limit CAS contention.
+	 */
+	private static int start(int length) {
+		return (int) ((Thread.currentThread().getId() * 0x9E3779B9L >>> 16) % length);
+	}
+}
@@ -0,0 +1,133 @@
+package com.kryo.serializer.kryo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Registration;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+public class CompactSerializersTest {
+
+	private final Kryo kryo = KryoFactory.newKryo();
+
+	@Test
+	public void date_is_a_varint() {
+		Date date = new Date(1392116197393L);
+		assertEquals(date, roundTrip(date));
+		// class id + reference marker + 6 bytes varint, the decimal string took 2 + 14
+		assertEquals(8, write(date).length);
+	}
+
+	@Test
+	public void value_types() {
+		List<Object> values = Arrays.<Object> asList(
+				UUID.randomUUID(),
+				BigInteger.valueOf(-42),
+				new BigInteger("123456789012345678901234567890"),
+				new BigDecimal("12.3400"),
+				new BigDecimal("-98765432109876543210.123456789"),
+				Instant.ofEpochSecond(1392116197L, 393000000),
+				Duration.ofMillis(-1500),
+				LocalDate.of(2014, 2, 11),
+				LocalTime.of(12, 34, 56, 789),
+				LocalDateTime.of(1969, 7, 20, 20, 17),
+				ZonedDateTime.of(2014, 2, 11, 10, 56, 37, 0, ZoneId.of("Europe/Paris")),
+				OffsetDateTime.of(2014, 2, 11, 10, 56, 37, 0, ZoneOffset.ofHours(-5)));
+		for (Object value : values) {
+			assertEquals(value, roundTrip(value));
+		}
+		// class id + reference marker + length 0 + varint for values that fit in a long
+		assertEquals(4, write(BigInteger.valueOf(-42)).length);
+		assertEquals(18, write(UUID.randomUUID()).length);
+	}
+
+	@Test
+	public void zoned_date_time_with_an_offset_the_zone_no_longer_has() {
+		ZoneId paris = ZoneId.of("Europe/Paris");
+		// +02:00 in winter, as if written before a change of the zone rules
+		assertEquals(ZonedDateTime.of(2014, 2, 11, 10, 56, 37, 0, paris), readZoned(LocalDateTime.of(2014, 2, 11, 10, 56, 37), ZoneOffset.ofHours(2), paris));
+		// both offsets valid at the end of summer time : the stored one is kept
+		ZonedDateTime overlap = readZoned(LocalDateTime.of(2014, 10, 26, 2, 30), ZoneOffset.ofHours(2), paris);
+		assertEquals(ZoneOffset.ofHours(2), overlap.getOffset());
+		assertEquals(overlap.withLaterOffsetAtOverlap(), roundTrip(overlap.withLaterOffsetAtOverlap()));
+	}
+
+	private ZonedDateTime readZoned(LocalDateTime dateTime, ZoneOffset offset, ZoneId zone) {
+		Output output = new Output(64);
+		CompactSerializers.writeLocalDateTime(output, dateTime);
+		output.writeInt(offset.getTotalSeconds(), false);
+		output.writeString(zone.getId());
+		return new CompactSerializers.ZonedDateTimeSerializer().read(kryo, new Input(output.toBytes()), ZonedDateTime.class);
+	}
+
+	@Test
+	public void empty_collections_keep_the_shared_instance() {
+		assertSame(Collections.emptyList(), roundTrip(Collections.emptyList()));
+		assertSame(Collections.emptySet(), roundTrip(Collections.emptySet()));
+		assertSame(Collections.emptyMap(), roundTrip(Collections.emptyMap()));
+	}
+
+	@Test
+	public void singleton_and_unmodifiable_collections() {
+		assertEquals(Collections.singletonList("a"), roundTrip(Collections.singletonList("a")));
+		assertEquals(Collections.singleton(1), roundTrip(Collections.singleton(1)));
+		assertEquals(Collections.singletonMap("a", 1), roundTrip(Collections.singletonMap("a", 1)));
+		assertEquals(Arrays.asList("a", "b"), roundTrip(Arrays.asList("a", "b")));
+
+		List<String> list = Collections.unmodifiableList(new ArrayList<String>(Arrays.asList("a", "b")));
+		assertEquals(list, roundTrip(list));
+		Map<String, Integer> map = new LinkedHashMap<String, Integer>();
+		map.put("b", 2);
+		map.put("a", 1);
+		Object read = roundTrip(Collections.unmodifiableMap(map));
+		assertEquals(map, read);
+		assertEquals(Arrays.asList("b", "a"), new ArrayList<Object>(((Map<?, ?>) read).keySet()));
+		assertEquals(new LinkedHashSet<String>(list), roundTrip(Collections.unmodifiableSet(new LinkedHashSet<String>(list))));
+	}
+
+	@Test
+	public void built_in_ids_stay_below_the_registry_range() {
+		for (int id = 0; id < KryoRegistry.FIRST_ID + 100; id++) {
+			Registration registration = kryo.getRegistration(id);
+			if (registration != null && id >= KryoRegistry.FIRST_ID) {
+				assertTrue(KryoFactory.getRegistry().getClasses().containsKey(id));
+			}
+		}
+	}
+
+	private byte[] write(Object o) {
+		Output output = new Output(256, -1);
+		kryo.writeClassAndObject(output, o);
+		return output.toBytes();
+	}
+
+	private Object roundTrip(Object o) {
+		return kryo.readClassAndObject(new Input(write(o)));
+	}
+}
@@ -0,0 +1,131 @@
+package com.kryo.serializer.kryo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.kryo.serializer.bean.BeanSerializable;
+
+public class KryoProjectionTest {
+
+	private final Kryo kryo = KryoFactory.newKryo();
+
+	@Test
+	public void requested_fields_match_a_full_decode() {
+		BeanSerializable bean = bean();
+		Map<String, Object> values = project(bean, BeanSerializable.class, "myInteger", "myString", "myList", "myMap", "unknown");
+
+		assertEquals(4, values.size());
+		assertEquals(42, values.get("myInteger"));
+		assertEquals("label", values.get("myString"));
+		assertEquals(bean.getMyList(), values.get("myList"));
+		assertEquals(bean.getMyMap(), values.get("myMap"));
+	}
+
+	@Test
+	public void skipped_fields_are_consumed() {
+		BeanSerializable bean = bean();
+		// myString sorts after the collections, the date and the primitives
+		Map<String, Object> values = project(bean, BeanSerializable.class, "myString");
+		assertEquals("label", values.get("myString"));
+
+		Map<String, Object> all = project(bean, BeanSerializable.class, "myBoolean", "myByte", "myChar", "myDate", "myDouble",
+				"myFloat", "myInteger", "myList", "myLong", "myMap", "myShort", "mySet", "myString");
+		assertEquals(KryoProjection.fieldsOf(bean, all.keySet()), all);
+	}
+
+	@Test
+	public void nested_beans_are_skipped() {
+		Outer outer = new Outer();
+		outer.inner = new Inner();
+		outer.inner.count = 7;
+		outer.inner.names = new ArrayList<String>(Arrays.asList("a", "b"));
+		outer.others = new ArrayList<Inner>(Arrays.asList(new Inner(), outer.inner));
+		outer.tail = "end";
+
+		Map<String, Object> values = project(outer, Outer.class, "tail");
+		assertEquals("end", values.get("tail"));
+	}
+
+	@Test
+	public void reference_to_a_skipped_value_is_not_projected() {
+		Outer outer = new Outer();
+		outer.inner = new Inner();
+		outer.others = new ArrayList<Inner>(Arrays.asList(outer.inner));
+		outer.tail = "end";
+
+		// others is written after inner and only references it
+		assertNull(project(outer, Outer.class, "others"));
+		assertEquals(outer.others, project(outer, Outer.class, "inner", "others").get("others"));
+
+		Output output = new Output(4096, -1);
+		kryo.writeClassAndObject(output, outer);
+		assertEquals("end", ((Outer) kryo.readClassAndObject(new Input(output.toBytes()))).tail);
+	}
+
+	@Test
+	public void other_class_is_not_projected() {
+		assertNull(project(bean(), Outer.class, "tail"));
+	}
+
+	private Map<String, Object> project(Object object, Class<?> type, String... fields) {
+		Output output = new Output(4096, -1);
+		kryo.writeClassAndObject(output, object);
+		Set<String> names = new HashSet<String>(Arrays.asList(fields));
+		return KryoProjection.read(kryo, new Input(output.toBytes()), type, names);
+	}
+
+	private static BeanSerializable bean() {
+		BeanSerializable bs = new BeanSerializable();
+		bs.setMyInteger(42);
+		bs.setMyBoolean(true);
+		bs.setMyChar('C');
+		bs.setMyDate(new Date(1392116197393L));
+		bs.setMyString("label");
+		ArrayList<String> list = new ArrayList<String>();
+		for (int i = 0; i < 100; i++) {
+			list.add("David" + i + "é");
+		}
+		bs.setMyList(list);
+		HashMap<Integer, String> map = new HashMap<Integer, String>();
+		map.put(1, "one");
+		map.put(2, null);
+		bs.setMyMap(map);
+		bs.setMySet(new HashSet<Integer>(Arrays.asList(3, 4)));
+		return bs;
+	}
+
+	static class Inner {
+		int count;
+		ArrayList<String> names;
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Inner && ((Inner) o).count == count && String.valueOf(((Inner) o).names).equals(String.valueOf(names));
+		}
+
+		@Override
+		public int hashCode() {
+			return count;
+		}
+	}
+
+	static class Outer {
+		Inner inner;
+		List<Inner> others;
+		String tail;
+	}
+}
@@ -0,0 +1,77 @@
+package com.kryo.serializer.kryo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import com.kryo.serializer.bean.BeanSerializable;
+
+public class KryoRegistryTest {
+
+	@After
+	public void tearDown() {
+		KryoFactory.setRegistrationRequired(false);
+	}
+
+	@Test
+	public void manifest_ids_are_registered() {
+		Kryo kryo = KryoFactory.newKryo();
+		assertEquals(100, kryo.getRegistration(BeanSerializable.class).getId());
+		assertEquals(BeanSerializable.class, KryoFactory.getRegistry().getClasses().get(100));
+	}
+
+	@Test
+	public void registered_class_id_replaces_class_name() {
+		Kryo kryo = KryoFactory.newKryo();
+		Output output = new Output(4096);
+		kryo.writeClassAndObject(output, getBean());
+		byte[] registered = output.toBytes();
+
+		Kryo unregistered = new Kryo();
+		Output unregisteredOutput = new Output(4096);
+		unregistered.writeClassAndObject(unregisteredOutput, getBean());
+
+		assertTrue(registered.length + BeanSerializable.class.getName().length() <= unregisteredOutput.position());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void id_clash_fails_fast() {
+		new KryoRegistry().register(200, BeanSerializable.class).register(200, Date.class);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void class_registered_twice_fails_fast() {
+		new KryoRegistry().register(200, BeanSerializable.class).register(201, BeanSerializable.class);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void reserved_ids_are_rejected() {
+		new KryoRegistry().register(KryoRegistry.FIRST_ID - 1, BeanSerializable.class);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unregistered_class_is_caught_when_required() {
+		KryoFactory.setRegistrationRequired(true);
+		Kryo kryo = KryoFactory.newKryo();
+		kryo.writeClassAndObject(new Output(4096), new AtomicLong(42));
+	}
+
+	private static BeanSerializable getBean() {
+		BeanSerializable bs = new BeanSerializable();
+		bs.setMyInteger(42);
+		bs.setMyChar('C');
+		bs.setMyDate(new Date(1392116197393L));
+		ArrayList<String> arrayList = new ArrayList<>();
+		arrayList.add("David");
+		bs.setMyList(arrayList);
+		return bs;
+	}
+}
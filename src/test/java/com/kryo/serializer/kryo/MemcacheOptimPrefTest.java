@@ -6,18 +6,48 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
 import org.junit.Test;
 
 import com.carrotsearch.junitbenchmarks.AbstractBenchmark;
 import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
 import com.kryo.serializer.bean.BeanSerializable;
+import com.kryo.serializer.server.EmbeddedMemcached;
 import com.kryo.serializer.spymemcache.SpyMemcached;
 
+/**
+ * Java serialization vs Kryo through the whole client stack, against the embedded server.
+ */
 public class MemcacheOptimPrefTest extends AbstractBenchmark {
 	
-	private static SpyMemcached spyMemcachedKryo = new SpyMemcached("localhost:11211", true);
-	private static SpyMemcached spyMemcachedClassic = new SpyMemcached("localhost:11211", false);
+	private static EmbeddedMemcached server;
+	private static SpyMemcached spyMemcachedKryo;
+	private static SpyMemcached spyMemcachedClassic;
 	private final static BeanSerializable bs = getBean();
+
+	@BeforeClass
+	public static void setUp() throws IOException, InterruptedException {
+		server = new EmbeddedMemcached().start();
+		spyMemcachedKryo = connect(new SpyMemcached(server.getAddress(), true));
+		spyMemcachedClassic = connect(new SpyMemcached(server.getAddress(), false));
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		server.close();
+	}
+
+	/**
+	 * Operations issued before the connection is up are cancelled.
+	 */
+	static SpyMemcached connect(SpyMemcached spyMemcached) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!spyMemcached.put("", "connected", 1) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		return spyMemcached;
+	}
 	
 	@Test
 	@BenchmarkOptions(benchmarkRounds = 100000)
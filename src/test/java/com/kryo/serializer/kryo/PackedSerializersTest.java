@@ -0,0 +1,175 @@
+package com.kryo.serializer.kryo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.kryo.serializer.bean.BeanSerializable;
+
+public class PackedSerializersTest {
+
+	private final Kryo kryo = KryoFactory.newKryo();
+
+	@Test
+	public void number_collections_keep_type_and_content() {
+		Random random = new Random(42);
+		List<Integer> ints = new ArrayList<Integer>();
+		for (int i = 0; i < 1000; i++) {
+			ints.add(random.nextInt());
+		}
+		ints.addAll(Arrays.asList(Integer.MIN_VALUE, Integer.MAX_VALUE, 0, -1, Integer.MIN_VALUE));
+		List<Collection<?>> collections = new ArrayList<Collection<?>>();
+		collections.add(ints);
+		collections.add(new HashSet<Integer>(ints));
+		collections.add(new LinkedHashSet<Integer>(ints));
+		collections.add(new ArrayList<Long>(Arrays.asList(Long.MIN_VALUE, Long.MAX_VALUE, 0L, Long.MIN_VALUE, -1L)));
+		collections.add(new LinkedList<Long>(Arrays.asList(3L, 2L, 1L)));
+		collections.add(new TreeSet<Long>(Arrays.asList(Long.MIN_VALUE, -5L, 7L, Long.MAX_VALUE)));
+		for (Collection<?> collection : collections) {
+			Object read = roundTrip(collection);
+			assertEquals(collection.getClass(), read.getClass());
+			assertEquals(collection, read);
+			if (!(collection instanceof HashSet) || collection instanceof LinkedHashSet) {
+				assertEquals(new ArrayList<Object>(collection), new ArrayList<Object>((Collection<?>) read));
+			}
+		}
+		ArrayDeque<Integer> deque = new ArrayDeque<Integer>(Arrays.asList(5, 6, 7));
+		assertEquals(Arrays.asList(5, 6, 7), new ArrayList<Object>((ArrayDeque<?>) roundTrip(deque)));
+	}
+
+	@Test
+	public void other_contents_use_the_kryo_format() {
+		List<Object> mixed = new ArrayList<Object>(Arrays.<Object> asList(1, 2L, "three", null));
+		assertEquals(mixed, roundTrip(mixed));
+		HashSet<Integer> withNull = new HashSet<Integer>(Arrays.asList(1, null));
+		assertEquals(withNull, roundTrip(withNull));
+		assertEquals(new ArrayList<Object>(), roundTrip(new ArrayList<Object>()));
+
+		TreeSet<Integer> reversed = new TreeSet<Integer>(Collections.<Integer> reverseOrder());
+		reversed.addAll(Arrays.asList(1, 3, 2));
+		TreeSet<?> read = (TreeSet<?>) roundTrip(reversed);
+		assertEquals(Arrays.asList(3, 2, 1), new ArrayList<Object>(read));
+		assertEquals(Collections.reverseOrder().getClass(), read.comparator().getClass());
+	}
+
+	@Test
+	public void sorted_ids_are_smaller_than_with_the_kryo_serializer() {
+		HashSet<Integer> dense = new HashSet<Integer>();
+		List<Long> sparse = new ArrayList<Long>();
+		for (int i = 0; i < 10000; i++) {
+			dense.add(1000000 + i);
+			sparse.add(1392116197393L + i * 1000L);
+		}
+		// bitmap : a bit per id
+		assertTrue(write(dense).length < 10000 / 8 + 16);
+		// deltas : 2 bytes per id
+		assertTrue(write(sparse).length < 2 * 10000 + 16);
+
+		Kryo plain = new Kryo();
+		Output output = new Output(1024, -1);
+		plain.writeClassAndObject(output, dense);
+		assertTrue(output.total() > 40000);
+		assertEquals(dense, roundTrip(dense));
+		assertEquals(sparse, roundTrip(sparse));
+	}
+
+	@Test
+	public void number_keyed_maps() {
+		HashMap<Integer, String> map = new HashMap<Integer, String>();
+		for (int i = 0; i < 100; i++) {
+			map.put(i * 7 - 300, "value" + i);
+		}
+		map.put(42, null);
+		assertEquals(map, roundTrip(map));
+
+		LinkedHashMap<Long, Object> linked = new LinkedHashMap<Long, Object>();
+		linked.put(9L, Arrays.asList(1, 2));
+		linked.put(-3L, "b");
+		linked.put(5L, linked);
+		LinkedHashMap<?, ?> read = (LinkedHashMap<?, ?>) roundTrip(linked);
+		assertEquals(Arrays.asList(9L, -3L, 5L), new ArrayList<Object>(read.keySet()));
+		assertEquals(Arrays.asList(1, 2), read.get(9L));
+		assertTrue(read.get(5L) == read);
+
+		HashMap<Object, Integer> mixed = new HashMap<Object, Integer>();
+		mixed.put("a", 1);
+		mixed.put(2, 2);
+		assertEquals(mixed, roundTrip(mixed));
+	}
+
+	@Test
+	public void arrays_pick_the_smaller_encoding() {
+		int[] ids = new int[1000];
+		long[] times = new long[1000];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = 5000000 + i * 3;
+			times[i] = 1392116197393L + i;
+		}
+		assertArrayEquals(ids, (int[]) roundTrip(ids));
+		assertArrayEquals(times, (long[]) roundTrip(times));
+		assertTrue(write(ids).length < 1000 + 16);
+		assertTrue(write(times).length < 1000 + 16);
+
+		int[] extremes = { Integer.MAX_VALUE, Integer.MIN_VALUE, 0, -1, 1 };
+		long[] longExtremes = { Long.MAX_VALUE, Long.MIN_VALUE, 0, -1, 1 };
+		assertArrayEquals(extremes, (int[]) roundTrip(extremes));
+		assertArrayEquals(longExtremes, (long[]) roundTrip(longExtremes));
+		assertArrayEquals(new int[0], (int[]) roundTrip(new int[0]));
+
+		Output output = new Output(16, -1);
+		kryo.writeObjectOrNull(output, null, int[].class);
+		assertNull(kryo.readObjectOrNull(new Input(output.toBytes()), int[].class));
+	}
+
+	@Test
+	public void bean_fields_and_projection() {
+		BeanSerializable bean = new BeanSerializable();
+		bean.setMyString("text");
+		HashSet<Integer> set = new HashSet<Integer>();
+		HashMap<Integer, String> map = new HashMap<Integer, String>();
+		for (int i = 0; i < 50; i++) {
+			set.add(i * 2);
+			map.put(i, "v" + i);
+		}
+		bean.setMySet(set);
+		bean.setMyMap(map);
+		bean.setMyInteger(7);
+		BeanSerializable read = (BeanSerializable) roundTrip(bean);
+		assertEquals(set, read.getMySet());
+		assertEquals(map, read.getMyMap());
+
+		Input input = new Input(write(bean));
+		// myString comes after the packed fields, skipped
+		assertEquals("text", KryoProjection.read(kryo, input, BeanSerializable.class, Collections.singleton("myString")).get("myString"));
+	}
+
+	private byte[] write(Object o) {
+		Output output = new Output(256, -1);
+		kryo.writeClassAndObject(output, o);
+		return output.toBytes();
+	}
+
+	private Object roundTrip(Object o) {
+		return kryo.readClassAndObject(new Input(write(o)));
+	}
+}
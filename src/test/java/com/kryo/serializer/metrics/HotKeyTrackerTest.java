@@ -0,0 +1,52 @@
+package com.kryo.serializer.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.kryo.serializer.metrics.HotKeyTracker.HotKey;
+
+public class HotKeyTrackerTest {
+
+	@Test
+	public void hottest_keys_come_first() {
+		HotKeyTracker tracker = new HotKeyTracker(8, 1024, 60000, 1);
+		Random random = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			// 3 hot keys among 10000 cold ones
+			int r = random.nextInt(10);
+			if (r < 3) {
+				tracker.record("hot" + r, 100 * (r + 1));
+			} else {
+				tracker.record("cold" + random.nextInt(10000), -1);
+			}
+		}
+		List<HotKey> hotKeys = tracker.getHotKeys();
+		assertTrue(hotKeys.size() <= 8);
+		for (int i = 0; i < 3; i++) {
+			assertTrue(hotKeys.get(i).getKey(), hotKeys.get(i).getKey().startsWith("hot"));
+			assertEquals(10000, hotKeys.get(i).getCount(), 1500);
+		}
+		assertEquals(100 * (Integer.parseInt(hotKeys.get(0).getKey().substring(3)) + 1), hotKeys.get(0).getSize());
+	}
+
+	@Test
+	public void windows_slide() throws InterruptedException {
+		HotKeyTracker tracker = new HotKeyTracker(4, 256, 100, 1);
+		tracker.record("old", 10);
+		Thread.sleep(120);
+		tracker.record("new", 10);
+		assertEquals(2, tracker.getHotKeys().size());
+
+		// two windows later the old key has slid out
+		Thread.sleep(120);
+		tracker.record("new", 10);
+		List<HotKey> hotKeys = tracker.getHotKeys();
+		assertEquals(1, hotKeys.size());
+		assertEquals("new", hotKeys.get(0).getKey());
+	}
+}
@@ -0,0 +1,66 @@
+package com.kryo.serializer.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.junit.Test;
+
+public class MetricsTest {
+
+	@Test
+	public void percentiles_stay_within_a_bucket() {
+		Histogram histogram = new Histogram();
+		for (int i = 1; i <= 10000; i++) {
+			histogram.record(i);
+		}
+		Snapshot snapshot = histogram.snapshot();
+		assertEquals(10000, snapshot.getCount());
+		assertEquals(5000.5, snapshot.getMean(), 0.001);
+		assertEquals(10000, snapshot.getMax());
+		assertWithin(5000, snapshot.getP50());
+		assertWithin(9900, snapshot.getP99());
+		assertEquals(10000, snapshot.getP999(), 10000 * 0.25);
+
+		histogram.reset();
+		assertEquals(0, histogram.snapshot().getCount());
+	}
+
+	@Test
+	public void buckets_cover_every_long() {
+		for (long value : new long[] { 0, 1, 3, 4, 7, 8, 1000, Integer.MAX_VALUE, Long.MAX_VALUE }) {
+			int bucket = Histogram.bucket(value);
+			assertTrue(value <= Histogram.upperBound(bucket));
+			assertTrue(bucket == 0 || value > Histogram.upperBound(bucket - 1));
+		}
+	}
+
+	@Test
+	public void exported_over_jmx() throws Exception {
+		Metrics metrics = new Metrics();
+		metrics.counter("hits").add(3);
+		metrics.histogram("get.nanos").record(1200);
+		ObjectName name = metrics.register("Test", "jmx");
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			TabularData counters = (TabularData) server.getAttribute(name, "Counters");
+			assertEquals(3L, counters.get(new Object[] { "hits" }).get("value"));
+			TabularData histograms = (TabularData) server.getAttribute(name, "Histograms");
+			CompositeData snapshot = (CompositeData) histograms.get(new Object[] { "get.nanos" }).get("value");
+			assertEquals(1L, snapshot.get("count"));
+			assertEquals(1200L, snapshot.get("max"));
+		} finally {
+			metrics.unregister(name);
+		}
+	}
+
+	private static void assertWithin(long expected, long actual) {
+		assertTrue(actual + " not within 25% of " + expected, actual >= expected && actual <= expected * 1.25);
+	}
+}
@@ -0,0 +1,178 @@
+package com.kryo.serializer.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EmbeddedMemcachedTest {
+
+	private EmbeddedMemcached server;
+	private Socket socket;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new EmbeddedMemcached().start();
+		socket = new Socket("127.0.0.1", server.getPort());
+		socket.setSoTimeout(5000);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		socket.close();
+		server.close();
+	}
+
+	@Test
+	public void text_storage_and_retrieval() throws IOException {
+		assertEquals("STORED\r\n", text("set a 7 0 5\r\nhello\r\n", 1));
+		assertEquals("NOT_STORED\r\n", text("add a 0 0 1\r\nx\r\n", 1));
+		assertEquals("NOT_STORED\r\n", text("replace b 0 0 1\r\nx\r\n", 1));
+		assertEquals("STORED\r\n", text("add b 0 0 2\r\n10\r\n", 1));
+		assertEquals("VALUE a 7 5\r\nhello\r\nVALUE b 0 2\r\n10\r\nEND\r\n", text("get a missing b\r\n", 5));
+
+		String gets = text("gets a\r\n", 3);
+		String cas = gets.substring("VALUE a 7 5 ".length(), gets.indexOf("\r\n"));
+		assertEquals("EXISTS\r\n", text("cas a 0 0 1 " + (Long.parseLong(cas) + 1) + "\r\nx\r\n", 1));
+		assertEquals("STORED\r\n", text("cas a 0 0 1 " + cas + "\r\nx\r\n", 1));
+
+		assertEquals("15\r\n", text("incr b 5\r\n", 1));
+		assertEquals("0\r\n", text("decr b 20\r\n", 1));
+		assertEquals("CLIENT_ERROR cannot increment or decrement non-numeric value\r\n", text("incr a 1\r\n", 1));
+		assertEquals("DELETED\r\n", text("delete a\r\n", 1));
+		assertEquals("NOT_FOUND\r\n", text("delete a\r\n", 1));
+		assertEquals("NOT_FOUND\r\n", text("incr a 1\r\n", 1));
+		assertEquals("ERROR\r\n", text("unknown\r\n", 1));
+	}
+
+	@Test
+	public void text_expiry_and_noreply() throws IOException {
+		assertEquals("STORED\r\n", text("set a 0 -1 1\r\nx\r\n", 1));
+		assertEquals("END\r\n", text("get a\r\n", 1));
+		// noreply commands answer nothing, the get reply comes first
+		assertEquals("VALUE b 0 1\r\ny\r\nEND\r\n", text("set b 0 3600 1 noreply\r\ny\r\nget b\r\n", 3));
+		assertEquals(1, server.size());
+	}
+
+	@Test
+	public void text_too_large_values_are_refused() throws IOException {
+		server.setMaxItemSize(4);
+		assertEquals("SERVER_ERROR object too large for cache\r\n", text("set a 0 0 5\r\nhello\r\n", 1));
+		assertEquals("END\r\n", text("get a\r\n", 1));
+		// refused from the command line, the data block is swallowed as it arrives
+		assertEquals("SERVER_ERROR object too large for cache\r\n", text("set a 0 0 100000\r\n", 1));
+		assertEquals("STORED\r\n", text(new String(new byte[100000], StandardCharsets.US_ASCII) + "\r\nset b 0 0 1\r\nx\r\n", 1));
+		assertEquals("SERVER_ERROR object too large for cache\r\n", text("set a 0 0 2147483647\r\n", 1));
+	}
+
+	@Test
+	public void binary_bad_frames_close_their_connection_only() throws IOException {
+		// extras and key longer than the body
+		ByteBuffer request = ByteBuffer.allocate(24 + 2);
+		request.put((byte) 0x80).put((byte) 0x01).putShort((short) 10).put((byte) 8).put((byte) 0).putShort((short) 0).putInt(2);
+		socket.getOutputStream().write(request.array());
+		assertEquals(-1, socket.getInputStream().read());
+
+		socket.close();
+		socket = new Socket("127.0.0.1", server.getPort());
+		socket.setSoTimeout(5000);
+		server.setMaxItemSize(4);
+		byte[] extras = ByteBuffer.allocate(8).array();
+		assertEquals(3, binary(0x01, "a", extras, new byte[100000], 0).getShort(6));
+		assertEquals(0, binary(0x01, "a", extras, new byte[4], 0).getShort(6));
+	}
+
+	@Test
+	public void binary_storage_and_retrieval() throws IOException {
+		byte[] value = "hello".getBytes(StandardCharsets.US_ASCII);
+		ByteBuffer set = binary(0x01, "a", ByteBuffer.allocate(8).putInt(7).putInt(0).array(), value, 0);
+		assertEquals(0, set.getShort(6));
+		long cas = set.getLong(16);
+		assertTrue(cas != 0);
+
+		ByteBuffer get = binary(0x0c, "a", new byte[0], new byte[0], 42);
+		assertEquals(0, get.getShort(6));
+		assertEquals(42, get.getInt(12));
+		assertEquals(cas, get.getLong(16));
+		assertEquals(7, get.getInt(24));
+		byte[] body = new byte[get.getInt(8) - 4 - 1];
+		get.position(24 + 4 + 1);
+		get.get(body);
+		assertArrayEquals(value, body);
+
+		assertEquals(2, binary(0x02, "a", ByteBuffer.allocate(8).array(), value, 0).getShort(6));
+		ByteBuffer incr = binary(0x05, "n", ByteBuffer.allocate(20).putLong(2).putLong(10).putInt(0).array(), new byte[0], 0);
+		assertEquals(10, incr.getLong(24));
+		assertEquals(12, binary(0x05, "n", ByteBuffer.allocate(20).putLong(2).putLong(10).putInt(0).array(), new byte[0], 0).getLong(24));
+		assertEquals(1, binary(0x05, "m", ByteBuffer.allocate(20).putLong(2).putLong(10).putInt(-1).array(), new byte[0], 0).getShort(6));
+		assertEquals(0, binary(0x04, "a", new byte[0], new byte[0], 0).getShort(6));
+		assertEquals(1, binary(0x00, "a", new byte[0], new byte[0], 0).getShort(6));
+		assertEquals(0x81, binary(0x30, "", new byte[0], new byte[0], 0).getShort(6));
+	}
+
+	@Test
+	public void latency_delays_replies() throws IOException {
+		server.setLatency(50, TimeUnit.MILLISECONDS);
+		long start = System.nanoTime();
+		assertEquals("VERSION 1.6.0-embedded\r\n", text("version\r\n", 1));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+	}
+
+	@Test
+	public void lost_replies_are_retransmitted_in_order() throws IOException {
+		server.setLossRate(1).setRetransmitDelay(100, TimeUnit.MILLISECONDS);
+		long start = System.nanoTime();
+		assertEquals("STORED\r\nVALUE a 0 1\r\nx\r\nEND\r\n", text("set a 0 0 1\r\nx\r\nget a\r\n", 4));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+	}
+
+	/**
+	 * Send commands and read lines of reply.
+	 */
+	private String text(String commands, int lines) throws IOException {
+		OutputStream out = socket.getOutputStream();
+		out.write(commands.getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+		InputStream in = socket.getInputStream();
+		StringBuilder sb = new StringBuilder();
+		while (lines > 0) {
+			int c = in.read();
+			if (c < 0) {
+				break;
+			}
+			sb.append((char) c);
+			if (c == '\n') {
+				lines--;
+			}
+		}
+		return sb.toString();
+	}
+
+	private ByteBuffer binary(int opcode, String key, byte[] extras, byte[] value, int opaque) throws IOException {
+		byte[] keyBytes = key.getBytes(StandardCharsets.US_ASCII);
+		ByteBuffer request = ByteBuffer.allocate(24 + extras.length + keyBytes.length + value.length);
+		request.put((byte) 0x80).put((byte) opcode).putShort((short) keyBytes.length).put((byte) extras.length).put((byte) 0)
+				.putShort((short) 0).putInt(extras.length + keyBytes.length + value.length).putInt(opaque).putLong(0)
+				.put(extras).put(keyBytes).put(value);
+		socket.getOutputStream().write(request.array());
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		byte[] header = new byte[24];
+		in.readFully(header);
+		byte[] response = new byte[24 + ByteBuffer.wrap(header).getInt(8)];
+		System.arraycopy(header, 0, response, 0, 24);
+		in.readFully(response, 24, response.length - 24);
+		return ByteBuffer.wrap(response);
+	}
+}
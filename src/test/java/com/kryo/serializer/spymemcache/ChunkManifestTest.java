@@ -0,0 +1,112 @@
+package com.kryo.serializer.spymemcache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.spy.memcached.CachedData;
+
+public class ChunkManifestTest {
+
+	private static final int CHUNK_SIZE = 1000;
+
+	@Test
+	public void chunks_join_back_into_the_value() {
+		CachedData d = value(3500);
+		ChunkManifest manifest = ChunkManifest.of(d, CHUNK_SIZE);
+		assertEquals(4, manifest.getChunkCount());
+
+		CachedData joined = manifest.join("key", store("key", manifest, d), CachedData.MAX_SIZE);
+		assertEquals(d.getFlags(), joined.getFlags());
+		assertArrayEquals(d.getData(), joined.getData());
+
+		// the manifest survives a trip through its stored form and the transcoder
+		CachedData stored = manifest.toCachedData();
+		ChunkManifest decoded = (ChunkManifest) new OptimizeTranscoder().decode(stored);
+		assertArrayEquals(d.getData(), decoded.join("key", store("key", manifest, d), CachedData.MAX_SIZE).getData());
+	}
+
+	@Test
+	public void evicted_chunk_is_a_miss() {
+		CachedData d = value(2500);
+		ChunkManifest manifest = ChunkManifest.of(d, CHUNK_SIZE);
+		Map<String, Object> chunks = store("key", manifest, d);
+		chunks.remove(ChunkManifest.chunkKey("key", 1));
+		assertNull(manifest.join("key", chunks, CachedData.MAX_SIZE));
+	}
+
+	@Test
+	public void chunk_of_another_version_is_a_miss() {
+		CachedData d = value(2500);
+		ChunkManifest manifest = ChunkManifest.of(d, CHUNK_SIZE);
+		Map<String, Object> chunks = store("key", manifest, d);
+
+		// a concurrent write of the same value replaced the last chunk
+		ChunkManifest other = ChunkManifest.of(d, CHUNK_SIZE);
+		String last = ChunkManifest.chunkKey("key", 2);
+		chunks.put(last, store("key", other, d).get(last));
+		assertNull(manifest.join("key", chunks, CachedData.MAX_SIZE));
+	}
+
+	@Test
+	public void corrupted_chunk_is_a_miss() {
+		CachedData d = value(2500);
+		ChunkManifest manifest = ChunkManifest.of(d, CHUNK_SIZE);
+		Map<String, Object> chunks = store("key", manifest, d);
+		((CachedData) chunks.get(ChunkManifest.chunkKey("key", 0))).getData()[100]++;
+		assertNull(manifest.join("key", chunks, CachedData.MAX_SIZE));
+	}
+
+	@Test
+	public void lengths_are_checked_before_allocating() {
+		CachedData d = value(2500);
+		ChunkManifest manifest = ChunkManifest.of(d, CHUNK_SIZE);
+		assertNull(manifest.join("key", store("key", manifest, d), 2499));
+
+		// forged manifests : more chunks than bytes, negative length
+		ByteBuffer forged = ByteBuffer.allocate(24).putInt(0).putInt(10).putInt(Integer.MAX_VALUE).putLong(1).putInt(0);
+		assertNull(ChunkManifest.from(new CachedData(OptimizeTranscoder.CHUNKED, forged.array(), CachedData.MAX_SIZE)));
+		forged.putInt(4, -1).putInt(8, 1);
+		assertNull(ChunkManifest.from(new CachedData(OptimizeTranscoder.CHUNKED, forged.array(), CachedData.MAX_SIZE)));
+	}
+
+	@Test
+	public void chunk_keys_stay_valid_for_long_keys() {
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < KeyEncoder.MAX_LENGTH) {
+			sb.append("long-key-");
+		}
+		String key = KeyEncoder.limit(sb.toString());
+		List<String> keys = ChunkManifest.of(value(2500), CHUNK_SIZE).chunkKeys(key);
+		assertEquals(3, keys.size());
+		for (String chunkKey : keys) {
+			assertTrue(chunkKey.length() <= KeyEncoder.MAX_LENGTH);
+		}
+		assertEquals(3, new HashSet<String>(keys).size());
+	}
+
+	private static CachedData value(int length) {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return new CachedData(OptimizeTranscoder.KRYO | OptimizeTranscoder.LZ4, data, Integer.MAX_VALUE);
+	}
+
+	private static Map<String, Object> store(String key, ChunkManifest manifest, CachedData d) {
+		Map<String, Object> chunks = new HashMap<String, Object>();
+		List<CachedData> split = manifest.split(d, CHUNK_SIZE);
+		for (int i = 0; i < split.size(); i++) {
+			chunks.put(ChunkManifest.chunkKey(key, i), split.get(i));
+		}
+		return chunks;
+	}
+}
@@ -0,0 +1,72 @@
+package com.kryo.serializer.spymemcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class GetBatcherTest {
+
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+	private final List<List<String>> fetched = new CopyOnWriteArrayList<List<String>>();
+
+	@After
+	public void tearDown() {
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void gets_within_the_window_share_one_fetch() throws Exception {
+		GetBatcher batcher = batcher(50000, 100);
+		List<CompletableFuture<Object>> results = new ArrayList<CompletableFuture<Object>>();
+		for (int i = 0; i < 10; i++) {
+			results.add(batcher.get("k" + i));
+		}
+		for (int i = 0; i < 10; i++) {
+			assertEquals("v:k" + i, results.get(i).get(5, TimeUnit.SECONDS));
+		}
+		assertEquals(1, fetched.size());
+		assertEquals(10, fetched.get(0).size());
+	}
+
+	@Test
+	public void full_batches_go_without_waiting() throws Exception {
+		GetBatcher batcher = batcher(TimeUnit.SECONDS.toMicros(60), 4);
+		for (int i = 0; i < 8; i++) {
+			batcher.get("k" + i);
+		}
+		assertEquals(2, fetched.size());
+		assertEquals(4, fetched.get(1).size());
+	}
+
+	@Test
+	public void same_key_is_fetched_once() throws Exception {
+		GetBatcher batcher = batcher(50000, 100);
+		CompletableFuture<Object> first = batcher.get("k");
+		assertSame(first, batcher.get("k"));
+		first.get(5, TimeUnit.SECONDS);
+		assertEquals(1, fetched.get(0).size());
+	}
+
+	private GetBatcher batcher(long windowMicros, int maxBatchSize) {
+		return new GetBatcher(windowMicros, maxBatchSize, scheduler) {
+			@Override
+			protected void fetch(Map<String, CompletableFuture<Object>> batch) {
+				fetched.add(new ArrayList<String>(batch.keySet()));
+				for (Map.Entry<String, CompletableFuture<Object>> entry : batch.entrySet()) {
+					entry.getValue().complete("v:" + entry.getKey());
+				}
+			}
+		};
+	}
+}
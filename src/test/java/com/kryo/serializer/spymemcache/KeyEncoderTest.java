@@ -0,0 +1,72 @@
+package com.kryo.serializer.spymemcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class KeyEncoderTest {
+
+	@Test
+	public void safe_keys_are_returned_as_is() {
+		String key = "user:42/profile?lang=fr";
+		assertSame(key, KeyEncoder.encode(key));
+	}
+
+	@Test
+	public void disallowed_characters_are_escaped() {
+		assertEquals("a%20b%0D%0A%25c", KeyEncoder.encode("a b\r\n%c"));
+		assertEquals("caf%C3%A9", KeyEncoder.encode("café"));
+		assertEquals("%E2%82%AC", KeyEncoder.encode("€"));
+		assertEquals("%F0%9F%98%80", KeyEncoder.encode("😀"));
+		assertEquals("%EF%BF%BD", KeyEncoder.encode("\ud83d"));
+	}
+
+	@Test
+	public void long_keys_keep_a_prefix_and_a_hash() {
+		char[] chars = new char[400];
+		Arrays.fill(chars, 'k');
+		String a = new String(chars) + "a";
+		String b = new String(chars) + "b";
+		String encodedA = KeyEncoder.encode(a);
+		String encodedB = KeyEncoder.encode(b);
+		assertEquals(KeyEncoder.MAX_LENGTH, encodedA.length());
+		assertEquals(KeyEncoder.MAX_LENGTH, encodedB.length());
+		assertTrue(encodedA.startsWith(a.substring(0, 200)));
+		assertNotEquals(encodedA, encodedB);
+		assertEquals(encodedA, KeyEncoder.encode(a));
+
+		// escaping can push a short key over the limit
+		Arrays.fill(chars, 0, 100, ' ');
+		assertEquals(KeyEncoder.MAX_LENGTH, KeyEncoder.encode(new String(chars, 0, 100)).length());
+	}
+
+	@Test
+	public void derived_keys_never_equal_user_keys() {
+		String key = KeyEncoder.encode("foo");
+		assertNotEquals(KeyEncoder.encode("lock:foo"), KeyEncoder.derive(key, "lock"));
+		assertNotEquals(KeyEncoder.encode("foo:lock"), KeyEncoder.derive(key, "lock"));
+		assertNotEquals(KeyEncoder.encode("foo:chunk:0"), ChunkManifest.chunkKey(key, 0));
+		// the marker itself is escaped in user keys
+		assertEquals("foo%25:chunk:0", KeyEncoder.encode(KeyEncoder.derive(key, "chunk:0")));
+	}
+
+	@Test
+	public void literal_keys_never_equal_hashed_keys() {
+		char[] chars = new char[400];
+		Arrays.fill(chars, 'k');
+		String hashed = KeyEncoder.encode(new String(chars));
+		assertEquals(KeyEncoder.MAX_LENGTH, hashed.length());
+		// a user key spelling the hashed key with a plain '#' stays a distinct literal
+		String lookalike = hashed.replace("%#", "k#");
+		assertEquals(KeyEncoder.MAX_LENGTH, lookalike.length());
+		assertSame(lookalike, KeyEncoder.encode(lookalike));
+		assertNotEquals(hashed, lookalike);
+		// spelled with the marker, its '%' is escaped
+		assertNotEquals(hashed, KeyEncoder.encode(hashed));
+	}
+}
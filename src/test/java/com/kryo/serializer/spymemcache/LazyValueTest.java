@@ -0,0 +1,59 @@
+package com.kryo.serializer.spymemcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.kryo.serializer.bean.BeanSerializable;
+
+public class LazyValueTest {
+
+	@Test
+	public void decodes_once_on_first_get() throws Exception {
+		OptimizeTranscoder transcoder = new OptimizeTranscoder();
+		transcoder.setKryoEnabled(true);
+		final LazyValue lazy = new LazyValue(transcoder, transcoder.encode(OptimizeTranscoderTest.getBean(20)));
+		assertFalse(lazy.isDecoded());
+		assertEquals(0, transcoder.getMetrics().getHistograms().get("decode.kryo.nanos").getCount());
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Object>> gets = new ArrayList<Future<Object>>();
+			for (int i = 0; i < 8; i++) {
+				gets.add(executor.submit(new Callable<Object>() {
+					@Override
+					public Object call() {
+						return lazy.get();
+					}
+				}));
+			}
+			Object value = gets.get(0).get();
+			assertEquals("David19", ((BeanSerializable) value).getMyList().get(19));
+			for (Future<Object> get : gets) {
+				assertSame(value, get.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertTrue(lazy.isDecoded());
+		assertEquals(1, transcoder.getMetrics().getHistograms().get("decode.kryo.nanos").getCount());
+	}
+
+	@Test
+	public void decoded_values_are_returned_as_is() {
+		Object value = new Object();
+		LazyValue lazy = new LazyValue(value);
+		assertTrue(lazy.isDecoded());
+		assertSame(value, lazy.get());
+	}
+}
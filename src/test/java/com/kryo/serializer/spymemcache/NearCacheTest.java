@@ -0,0 +1,69 @@
+package com.kryo.serializer.spymemcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.kryo.serializer.bean.BeanSerializable;
+
+import net.spy.memcached.CachedData;
+
+public class NearCacheTest {
+
+	@Test
+	public void objects_are_shared_and_counted() {
+		NearCache near = new NearCache();
+		BeanSerializable bs = OptimizeTranscoderTest.getBean(3);
+		near.put("k", bs, 0);
+
+		assertSame(bs, near.get("k"));
+		assertNull(near.get("other"));
+		assertEquals(1, near.getHits());
+		assertEquals(1, near.getMisses());
+
+		near.invalidate("k");
+		assertNull(near.get("k"));
+	}
+
+	@Test
+	public void bytes_decode_to_a_fresh_copy() {
+		OptimizeTranscoder transcoder = new OptimizeTranscoder();
+		transcoder.setKryoEnabled(true);
+		NearCache near = new NearCache(1024 * 1024, 60, true);
+		near.put("k", transcoder.encode(OptimizeTranscoderTest.getBean(3)), 0);
+
+		BeanSerializable first = (BeanSerializable) transcoder.decode((CachedData) near.get("k"));
+		BeanSerializable second = (BeanSerializable) transcoder.decode((CachedData) near.get("k"));
+		assertEquals("David2", first.getMyList().get(2));
+		assertTrue(first != second);
+	}
+
+	@Test
+	public void bytes_are_bounded_by_weight() {
+		NearCache near = new NearCache(64 * 1024, 60, true);
+		for (int i = 0; i < 256; i++) {
+			near.put("k" + i, new CachedData(0, new byte[1024], CachedData.MAX_SIZE), 0);
+		}
+		near.cleanUp();
+		assertTrue(near.size() <= 64);
+	}
+
+	@Test
+	public void ttl_is_capped_by_exp() throws InterruptedException {
+		NearCache near = new NearCache(100, 60, false);
+		near.put("expired", "v", (int) (System.currentTimeMillis() / 1000) - 10);
+		near.put("never", "v", -1);
+		near.put("short", "v", 1);
+		near.put("long", "v", 3600);
+		assertNull(near.get("expired"));
+		assertNull(near.get("never"));
+		assertEquals("v", near.get("short"));
+
+		Thread.sleep(1100);
+		assertNull(near.get("short"));
+		assertEquals("v", near.get("long"));
+	}
+}
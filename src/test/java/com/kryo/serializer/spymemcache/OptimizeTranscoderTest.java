@@ -0,0 +1,353 @@
+package com.kryo.serializer.spymemcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+
+import com.kryo.serializer.bean.BeanSerializable;
+import com.kryo.serializer.compress.CompressionAdvisor;
+import com.kryo.serializer.compress.CompressionCodec;
+import com.kryo.serializer.compress.GzipCodec;
+import com.kryo.serializer.compress.Lz4Codec;
+import com.kryo.serializer.compress.SnappyRawCodec;
+import com.kryo.serializer.compress.ZstdCodec;
+import com.kryo.serializer.compress.ZstdDictionaryCodec;
+import com.kryo.serializer.kryo.KryoFactory;
+import com.kryo.serializer.kryo.KryoPool;
+import com.kryo.serializer.metrics.Snapshot;
+
+import net.spy.memcached.CachedData;
+
+public class OptimizeTranscoderTest {
+
+	private final static BeanSerializable bs = getBean(200);
+
+	@Test
+	public void kryo_snappy_raw() {
+		OptimizeTranscoder transcoder = new OptimizeTranscoder();
+		transcoder.setKryoEnabled(true);
+
+		CachedData d = transcoder.encode(bs);
+		assertEquals(OptimizeTranscoder.KRYO | OptimizeTranscoder.SNAPPY_RAW, d.getFlags());
+		assertBean((BeanSerializable) transcoder.decode(d));
+	}
+
+	@Test
+	public void kryo_snappy_framed_still_decodes() {
+		OptimizeTranscoder legacy = new OptimizeTranscoder();
+		legacy.setKryoEnabled(true);
+		legacy.setSnappyRawEnabled(false);
+		CachedData d = legacy.encode(bs);
+		assertEquals(OptimizeTranscoder.KRYO | OptimizeTranscoder.SNAPPY, d.getFlags());
+
+		OptimizeTranscoder transcoder = new OptimizeTranscoder();
+		transcoder.setKryoEnabled(true);
+		assertBean((BeanSerializable) transcoder.decode(d));
+	}
+
+	@Test
+	public void small_values_stay_uncompressed() {
+		OptimizeTranscoder transcoder = new OptimizeTranscoder();
+		transcoder.setKryoEnabled(true);
+
+		CachedData d = transcoder.encode(getBean(1));
+		assertEquals(OptimizeTranscoder.KRYO, d.getFlags());
+		assertEquals("David0", ((BeanSerializable) transcoder.decode(d)).getMyList().get(0));
+	}
+
+	@Test
+	public void decode_fields() {
+		Set<String> fields = new HashSet<String>(Arrays.asList("myInteger", "myList"));
+		OptimizeTranscoder transcoder = new OptimizeTranscoder();
+		transcoder.setKryoEnabled(true);
+		Map<String, Object> values = transcoder.decodeFields(transcoder.encode(bs), BeanSerializable.class, fields);
+		assertEquals(42, values.get("myInteger"));
+		assertEquals(bs.getMyList(), values.get("myList"));
+
+		// java serialization goes through a full decode
+		OptimizeTranscoder java = new OptimizeTranscoder();
+		assertEquals(values, java.decodeFields(java.encode(bs), BeanSerializable.class, fields));
+		assertNull(transcoder.decodeFields(transcoder.encode("David"), BeanSerializable.class, fields));
+	}
+
+	@Test
+	public void special_byte_array_snappy_raw() {
+		OptimizeTranscoder transcoder = new OptimizeTranscoder();
+		transcoder.setKryoEnabled(true);
+
+		byte[] b = new byte[4096];
+		CachedData d = transcoder.encode(b);
+		assertEquals(OptimizeTranscoder.SPECIAL_BYTEARRAY | OptimizeTranscoder.SNAPPY_RAW, d.getFlags());
+		assertEquals(b.length, ((byte[]) transcoder.decode(d)).length);
+	}
+
+	@Test
+	public void kryo_lz4_and_zstd() {
+		OptimizeTranscoder lz4 = new OptimizeTranscoder();
+		lz4.setKryoEnabled(true);
+		lz4.setCompressionCodec(new Lz4Codec());
+		CachedData lz4Data = lz4.encode(bs);
+		assertEquals(OptimizeTranscoder.KRYO | OptimizeTranscoder.LZ4, lz4Data.getFlags());
+
+		OptimizeTranscoder zstd = new OptimizeTranscoder();
+		zstd.setKryoEnabled(true);
+		zstd.setCompressionCodec(new ZstdCodec(512, 9));
+		CachedData zstdData = zstd.encode(bs);
+		assertEquals(OptimizeTranscoder.KRYO | OptimizeTranscoder.ZSTD, zstdData.getFlags());
+
+		// decode dispatches on the stored flags, whatever codec the reader writes with
+		assertBean((BeanSerializable) zstd.decode(lz4Data));
+		assertBean((BeanSerializable) lz4.decode(zstdData));
+	}
+
+	@Test
+	public void java_serialization_gzip() {
+		OptimizeTranscoder transcoder = new OptimizeTranscoder();
+		transcoder.setCompressionCodec(new GzipCodec(1024, Deflater.BEST_SPEED));
+
+		CachedData d = transcoder.encode(bs);
+		assertEquals(OptimizeTranscoder.SERIALIZED | OptimizeTranscoder.GZIP, d.getFlags());
+		assertBean((BeanSerializable) new OptimizeTranscoder().decode(d));
+	}
+
+	@Test
+	public void kryo_zstd_dictionary_for_small_values() throws InterruptedException {
+		ZstdDictionaryCodec codec = new ZstdDictionaryCodec(64, 3, 4096, 128 * 1024, 1);
+		OptimizeTranscoder transcoder = new OptimizeTranscoder();
+		transcoder.setKryoEnabled(true);
+		transcoder.setSmallValueCodec(codec);
+
+		BeanSerializable small = getBean(8);
+		assertEquals(OptimizeTranscoder.KRYO, transcoder.encode(small).getFlags());
+		for (int i = 0; i < 10000 && codec.getDictionary() == null; i++) {
+			BeanSerializable sample = getBean(6 + i % 5);
+			sample.setMyInteger(i);
+			transcoder.encode(sample);
+			if (i > 2000) {
+				Thread.sleep(1);
+			}
+		}
+		assertNotNull(codec.getDictionary());
+
+		CachedData d = transcoder.encode(small);
+		assertEquals(OptimizeTranscoder.KRYO | OptimizeTranscoder.ZSTD_DICT, d.getFlags());
+
+		// another node loads the shared dictionary to decode
+		ZstdDictionaryCodec otherCodec = new ZstdDictionaryCodec();
+		otherCodec.loadDictionary(codec.getDictionary());
+		OptimizeTranscoder other = new OptimizeTranscoder();
+		other.setKryoEnabled(true);
+		other.setSmallValueCodec(otherCodec);
+		assertEquals(small.getMyList(), ((BeanSerializable) other.decode(d)).getMyList());
+	}
+
+	@Test
+	public void incompressible_types_are_skipped_and_probed() {
+		OptimizeTranscoder transcoder = new OptimizeTranscoder();
+		transcoder.setKryoEnabled(true);
+		transcoder.setCompressionAdvisor(new CompressionAdvisor(4, 0.9, 8));
+
+		Random random = new Random(42);
+		byte[] jpeg = new byte[8192];
+		for (int i = 0; i < 100; i++) {
+			random.nextBytes(jpeg);
+			CachedData d = transcoder.encode(jpeg);
+			assertEquals(OptimizeTranscoder.SPECIAL_BYTEARRAY, d.getFlags());
+		}
+		assertEquals(OptimizeTranscoder.KRYO | OptimizeTranscoder.SNAPPY_RAW, transcoder.encode(bs).getFlags());
+
+		CompressionAdvisor.Stats stats = transcoder.getCompressionStats().get("[B [8192-16383]");
+		assertFalse(stats.isCompressing());
+		// 4 attempts to learn, then 1 probe every 8 values
+		assertEquals(4 + 96 / 8, stats.getAttempts());
+		assertEquals(96, stats.getSkipped());
+		for (Map.Entry<String, CompressionAdvisor.Stats> entry : transcoder.getCompressionStats().entrySet()) {
+			if (entry.getKey().startsWith(BeanSerializable.class.getName())) {
+				assertTrue(entry.getValue().isCompressing());
+			}
+		}
+	}
+
+	@Test
+	public void concurrent_encode_decode_share_pooled_kryo() throws Exception {
+		final OptimizeTranscoder transcoder = new OptimizeTranscoder();
+		transcoder.setKryoEnabled(true);
+		// no more threads than idle Kryo kept, else a released one may be dropped and created again
+		int threads = Math.min(64, KryoPool.DEFAULT_MAX_IDLE);
+		int createdBefore = KryoFactory.getPool().getCreated();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		for (int t = 0; t < threads; t++) {
+			final int seed = t;
+			results.add(executor.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					for (int i = 0; i < 500; i++) {
+						BeanSerializable bean = getBean(1 + (seed + i) % 100);
+						bean.setMyInteger(seed * 1000 + i);
+						BeanSerializable read = (BeanSerializable) transcoder.decode(transcoder.encode(bean));
+						if (read.getMyInteger() != bean.getMyInteger() || !read.getMyList().equals(bean.getMyList())) {
+							return false;
+						}
+					}
+					return true;
+				}
+			}));
+		}
+		for (Future<Boolean> result : results) {
+			assertTrue(result.get());
+		}
+		executor.shutdown();
+		assertTrue(KryoFactory.getPool().getCreated() - createdBefore <= threads);
+		assertTrue(KryoFactory.getPool().getIdle() <= KryoPool.DEFAULT_MAX_IDLE);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void codec_flag_must_not_clash_with_type_flags() {
+		new OptimizeTranscoder().registerCodec(new SnappyRawCodec() {
+			@Override
+			public int getFlag() {
+				return OptimizeTranscoder.KRYO;
+			}
+		});
+	}
+
+	@Test
+	public void kryo_values_of_the_previous_format_are_misses() {
+		OptimizeTranscoder transcoder = new OptimizeTranscoder();
+		transcoder.setKryoEnabled(true);
+		// written by the first release : ArrayList [5, 7, 9], ArrayList ["a", "bc"], HashMap {1=one}, int[] {1, 2, 3}
+		for (String hex : new String[] { "0e0103020a020e0212", "0e010203018261030162e3", "0d0101020203016f6ee5", "01005bc90104020406" }) {
+			assertNull(transcoder.decode(new CachedData(OptimizeTranscoder.KRYO_LEGACY, bytes(hex), CachedData.MAX_SIZE)));
+		}
+		ArrayList<Integer> list = new ArrayList<Integer>(Arrays.asList(5, 7, 9));
+		CachedData d = transcoder.encode(list);
+		assertEquals(OptimizeTranscoder.KRYO, d.getFlags());
+		assertEquals(list, transcoder.decode(d));
+	}
+
+	@Test
+	public void kryo_dates_of_the_previous_format_are_misses() {
+		OptimizeTranscoder transcoder = new OptimizeTranscoder();
+		transcoder.setKryoEnabled(true);
+		// written by the first release : ArrayList [Date(1392116197393)], the date as a decimal string
+		assertNull(transcoder.decode(new CachedData(OptimizeTranscoder.KRYO_LEGACY, bytes("0e01011501313339323131363139373339b3"), CachedData.MAX_SIZE)));
+		List<Date> dates = new ArrayList<Date>(Arrays.asList(new Date(1392116197393L)));
+		assertEquals(dates, transcoder.decode(transcoder.encode(dates)));
+	}
+
+	@Test
+	public void values_of_an_unknown_codec_are_misses() {
+		OptimizeTranscoder writer = new OptimizeTranscoder();
+		writer.setKryoEnabled(true);
+		writer.setCompressionCodec(new SnappyRawCodec() {
+			@Override
+			public int getFlag() {
+				return 1 << 23;
+			}
+		});
+		CachedData d = writer.encode(bs);
+		assertEquals(OptimizeTranscoder.KRYO | 1 << 23, d.getFlags());
+		assertBean((BeanSerializable) writer.decode(d));
+
+		OptimizeTranscoder transcoder = new OptimizeTranscoder();
+		transcoder.setKryoEnabled(true);
+		assertNull(transcoder.decode(d));
+		assertNull(transcoder.decodeFields(d, BeanSerializable.class, new HashSet<String>(Arrays.asList("myString"))));
+		assertNull(transcoder.decode(new CachedData(OptimizeTranscoder.KRYO | OptimizeTranscoder.LZ4 | OptimizeTranscoder.ZSTD, d.getData(), CachedData.MAX_SIZE)));
+	}
+
+	@Test
+	public void decompressed_length_is_limited_to_the_max_size() {
+		OptimizeTranscoder transcoder = new OptimizeTranscoder();
+		transcoder.setKryoEnabled(true);
+		transcoder.setMaxSize(64 * 1024);
+		byte[] large = new byte[100 * 1024];
+		for (CompressionCodec codec : new CompressionCodec[] { new Lz4Codec(), new SnappyRawCodec(), new ZstdCodec() }) {
+			byte[] compressed = codec.compress(large, large.length);
+			assertNull(transcoder.decode(new CachedData(OptimizeTranscoder.SPECIAL_BYTEARRAY | codec.getFlag(), compressed, CachedData.MAX_SIZE)));
+			assertEquals(large.length, codec.decompress(compressed).length);
+		}
+		// a forged LZ4 header, nothing allocated
+		byte[] forged = { 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0 };
+		assertNull(transcoder.decode(new CachedData(OptimizeTranscoder.SPECIAL_BYTEARRAY | OptimizeTranscoder.LZ4, forged, CachedData.MAX_SIZE)));
+	}
+
+	@Test
+	public void kryo_null_value() {
+		OptimizeTranscoder transcoder = new OptimizeTranscoder();
+		transcoder.setKryoEnabled(true);
+		transcoder.setCompressionAdvisor(new CompressionAdvisor(4, 0.9, 8));
+		CachedData d = transcoder.encode(null);
+		assertEquals(OptimizeTranscoder.KRYO, d.getFlags());
+		assertNull(transcoder.decode(d));
+		assertTrue(transcoder.getCompressionStats().isEmpty());
+	}
+
+	static byte[] bytes(String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		}
+		return bytes;
+	}
+
+	private static void assertBean(BeanSerializable bsRead) {
+		assertEquals('C', bsRead.getMyChar());
+		assertEquals(bs.getMyList(), bsRead.getMyList());
+		assertEquals(bs.getMyDate(), bsRead.getMyDate());
+	}
+
+	@Test
+	public void metrics_per_value_type() {
+		OptimizeTranscoder transcoder = new OptimizeTranscoder();
+		transcoder.setKryoEnabled(true);
+		CachedData d = transcoder.encode(bs);
+		transcoder.decode(d);
+		transcoder.decode(transcoder.encode("value"));
+
+		Map<String, Snapshot> histograms = transcoder.getMetrics().getHistograms();
+		assertEquals(1, histograms.get("encode.kryo.nanos").getCount());
+		assertEquals(1, histograms.get("decode.kryo.nanos").getCount());
+		assertEquals(d.getData().length, histograms.get("encode.kryo.bytes").getMax());
+		assertTrue(histograms.get("encode.kryo.ratioPerMille").getMax() < 1000);
+		assertEquals(1, histograms.get("decode.string.nanos").getCount());
+		assertEquals(0, histograms.get("encode.serialized.nanos").getCount());
+	}
+
+	static BeanSerializable getBean(int listSize) {
+		BeanSerializable bs = new BeanSerializable();
+		bs.setMyInteger(42);
+		bs.setMyBoolean(true);
+		bs.setMyByte(Byte.parseByte("1"));
+		bs.setMyChar('C');
+		bs.setMyDate(new Date(1392116197393L));
+		bs.setMyDouble(123);
+		bs.setMyFloat(2);
+		ArrayList<String> arrayList = new ArrayList<>();
+		for (int i = 0; i < listSize; i++) {
+			arrayList.add("David" + i);
+		}
+		bs.setMyList(arrayList);
+		return bs;
+	}
+}
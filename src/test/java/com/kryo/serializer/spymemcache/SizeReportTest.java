@@ -0,0 +1,88 @@
+package com.kryo.serializer.spymemcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import com.kryo.serializer.spymemcache.SizeReport.Mode;
+import com.kryo.serializer.spymemcache.SizeReport.Row;
+
+public class SizeReportTest {
+
+	@Test
+	public void generated_corpus_stays_within_budget() throws Exception {
+		List<Row> rows = new SizeReport(2).addAll(SizeReport.generatedCorpus()).run();
+		Properties budget = new Properties();
+		InputStream in = getClass().getResourceAsStream("/size-budget.properties");
+		try {
+			budget.load(in);
+		} finally {
+			in.close();
+		}
+		List<String> overruns = SizeReport.checkBudget(rows, budget);
+		assertTrue(overruns + "\n" + SizeReport.format(rows), overruns.isEmpty());
+	}
+
+	@Test
+	public void a_row_per_class_and_mode() {
+		List<Row> rows = new SizeReport(1).add("a").add("b").add(Long.valueOf(1)).run();
+		assertEquals(2 * Mode.values().length, rows.size());
+		Row text = rows.get(0);
+		assertEquals("java.lang.String", text.getType());
+		assertEquals(Mode.SERIALIZED, text.getMode());
+		assertEquals(2, text.getSamples());
+		assertEquals(0, text.getFailures());
+		assertEquals("LONG", rows.get(Mode.values().length).getFlags());
+	}
+
+	@Test
+	public void large_values_are_compressed() {
+		List<Row> rows = new SizeReport(1).add(SizeReport.generatedCorpus().get(2)).run();
+		for (Row row : rows) {
+			switch (row.getMode()) {
+			case SERIALIZED:
+				assertEquals("SERIALIZED", row.getFlags());
+				break;
+			case KRYO:
+				assertEquals("KRYO", row.getFlags());
+				assertTrue(row.getRawSize() < rows.get(0).getRawSize());
+				break;
+			case KRYO_SNAPPY:
+				assertEquals("KRYO|SNAPPY_RAW", row.getFlags());
+				break;
+			default:
+			}
+			assertTrue(row.getStoredSize() <= row.getRawSize());
+		}
+	}
+
+	@Test
+	public void budget_overruns_are_reported() {
+		List<Row> rows = new SizeReport(1).add("some text").run();
+		Properties budget = new Properties();
+		budget.setProperty("java.lang.String@KRYO", "4");
+		budget.setProperty("java.lang.String@GZIP", "1000");
+		List<String> overruns = SizeReport.checkBudget(rows, budget);
+		assertEquals(Arrays.asList("java.lang.String@KRYO stores 9 bytes, budget 4"), overruns);
+	}
+
+	@Test
+	public void corpus_dump_round_trip() throws Exception {
+		File dump = File.createTempFile("corpus", ".bin");
+		try {
+			List<Object> corpus = Arrays.<Object> asList("text", Long.valueOf(7), new Date(0));
+			SizeReport.writeCorpus(dump, corpus);
+			assertEquals(corpus, SizeReport.readCorpus(dump));
+		} finally {
+			dump.delete();
+		}
+	}
+}
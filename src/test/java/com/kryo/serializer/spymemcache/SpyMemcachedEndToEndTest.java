@@ -0,0 +1,207 @@
+package com.kryo.serializer.spymemcache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.kryo.serializer.bean.BeanSerializable;
+import com.kryo.serializer.server.EmbeddedMemcached;
+
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+
+/**
+ * SpyMemcached and OptimizeTranscoder against the embedded server, with both protocols.
+ */
+public class SpyMemcachedEndToEndTest {
+
+	private static EmbeddedMemcached server;
+
+	@BeforeClass
+	public static void setUp() throws IOException {
+		server = new EmbeddedMemcached().start();
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		server.close();
+	}
+
+	@Test
+	public void text_protocol() throws Exception {
+		roundTrip(Protocol.TEXT);
+	}
+
+	@Test
+	public void binary_protocol() throws Exception {
+		roundTrip(Protocol.BINARY);
+	}
+
+	private void roundTrip(Protocol protocol) throws Exception {
+		SpyMemcached spyMemcached = connect(new SpyMemcached(server.getAddress(), true, new SpyMemcachedConfig().setProtocol(protocol)));
+		try {
+			String prefix = protocol.name();
+			assertTrue(spyMemcached.put(OptimizeTranscoderTest.getBean(50), prefix + "bean", 3600));
+			assertTrue(spyMemcached.put("élan", prefix + " key with spaces", 3600));
+			assertEquals("David49", ((BeanSerializable) spyMemcached.get(prefix + "bean")).getMyList().get(49));
+			assertEquals("élan", spyMemcached.get(prefix + " key with spaces"));
+			assertNull(spyMemcached.get(prefix + "missing"));
+
+			Map<String, Object> bulk = spyMemcached.get(new String[] { prefix + "bean", prefix + "missing" });
+			assertEquals(50, ((BeanSerializable) bulk.get(prefix + "bean")).getMyList().size());
+			assertNull(bulk.get(prefix + "missing"));
+
+			assertTrue(spyMemcached.put("10", prefix + "counter", 3600));
+			assertEquals(15, spyMemcached.incr(prefix + "counter", 5));
+			assertEquals(15, spyMemcached.getCounter(prefix + "counter"));
+
+			spyMemcached.setLoadLockSeconds(5);
+			assertEquals("loaded", spyMemcached.getOrLoad(prefix + "loaded", 3600, new Callable<String>() {
+				@Override
+				public String call() {
+					return "loaded";
+				}
+			}));
+			assertEquals("loaded", spyMemcached.get(prefix + "loaded"));
+
+			assertTrue(spyMemcached.invalidate(prefix + "bean"));
+			assertNull(spyMemcached.get(prefix + "bean"));
+		} finally {
+			spyMemcached.destroy();
+		}
+	}
+
+	/**
+	 * Wait for the connection : with FailureMode.Cancel, operations issued before it are cancelled.
+	 */
+	static SpyMemcached connect(SpyMemcached spyMemcached) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!spyMemcached.put("", "connected", 1) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		return spyMemcached;
+	}
+
+	@Test
+	public void values_above_the_item_size_are_chunked() throws Exception {
+		SpyMemcached spyMemcached = connect(new SpyMemcached(server.getAddress(), false, new SpyMemcachedConfig().setChunkSize(256 * 1024)));
+		try {
+			byte[] large = new byte[3 * EmbeddedMemcached.DEFAULT_MAX_ITEM_SIZE];
+			new Random(1).nextBytes(large);
+			assertTrue(spyMemcached.put(large, "large", 3600));
+			assertArrayEquals(large, (byte[]) spyMemcached.get("large"));
+		} finally {
+			spyMemcached.destroy();
+		}
+	}
+
+	@Test
+	public void corrupt_value_in_a_batch_completes_every_get() throws Exception {
+		// a boolean without its byte, written behind the transcoder
+		Socket socket = new Socket("127.0.0.1", server.getPort());
+		try {
+			socket.getOutputStream().write("set batch-corrupt 8192 0 0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			assertEquals("STORED", new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII)).readLine());
+		} finally {
+			socket.close();
+		}
+		SpyMemcached spyMemcached = connect(new SpyMemcached(server.getAddress(), false, new SpyMemcachedConfig().setOpTimeout(60000)));
+		NearCache near = new NearCache(1024 * 1024, 60, true);
+		spyMemcached.setNearCache(near);
+		spyMemcached.setGetBatching(TimeUnit.MILLISECONDS.toMicros(50), 2);
+		try {
+			assertTrue(spyMemcached.put("good", "batch-good", 3600));
+			near.invalidateAll();
+			CompletableFuture<Object> corrupt = spyMemcached.getAsync("batch-corrupt");
+			CompletableFuture<Object> good = spyMemcached.getAsync("batch-good");
+			// well within the operation timeout
+			assertNull(corrupt.get(5, TimeUnit.SECONDS));
+			assertEquals("good", good.get(5, TimeUnit.SECONDS));
+			assertNull(near.get("batch-corrupt"));
+		} finally {
+			spyMemcached.destroy();
+		}
+	}
+
+	@Test
+	public void waiting_for_another_load_counts_one_miss() throws Exception {
+		final SpyMemcached loading = connect(new SpyMemcached(server.getAddress(), false, new SpyMemcachedConfig()));
+		SpyMemcached waiting = connect(new SpyMemcached(server.getAddress(), false, new SpyMemcachedConfig()));
+		loading.setLoadLockSeconds(5);
+		waiting.setLoadLockSeconds(5);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final CountDownLatch locked = new CountDownLatch(1);
+			Future<Object> load = executor.submit(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					return loading.getOrLoad("shared", 3600, new Callable<String>() {
+						@Override
+						public String call() throws InterruptedException {
+							locked.countDown();
+							Thread.sleep(500);
+							return "loaded";
+						}
+					});
+				}
+			});
+			assertTrue(locked.await(5, TimeUnit.SECONDS));
+			long misses = waiting.getMisses();
+			assertEquals("loaded", waiting.getOrLoad("shared", 3600, new Callable<String>() {
+				@Override
+				public String call() {
+					return "not loaded twice";
+				}
+			}));
+			assertEquals("loaded", load.get(5, TimeUnit.SECONDS));
+			// the polls while the lock is held aren't counted
+			assertEquals(misses + 1, waiting.getMisses());
+		} finally {
+			executor.shutdown();
+			loading.destroy();
+			waiting.destroy();
+		}
+	}
+
+	@Test
+	public void failed_chunked_put_stays_out_of_the_near_cache() throws Exception {
+		SpyMemcached spyMemcached = connect(new SpyMemcached(server.getAddress(), false, new SpyMemcachedConfig().setChunkSize(256 * 1024)));
+		NearCache near = new NearCache();
+		spyMemcached.setNearCache(near);
+		try {
+			byte[] large = new byte[EmbeddedMemcached.DEFAULT_MAX_ITEM_SIZE];
+			new Random(2).nextBytes(large);
+			// even the manifest is refused
+			server.setMaxItemSize(16);
+			assertFalse(spyMemcached.put(large, "refused", 3600));
+			assertNull(near.get("refused"));
+			// no exception handler to invalidate after an async put, the next operation waits for it
+			spyMemcached.asyncPut(large, "refused", 3600);
+			assertFalse(spyMemcached.invalidate("other"));
+			assertNull(near.get("refused"));
+		} finally {
+			server.setMaxItemSize(EmbeddedMemcached.DEFAULT_MAX_ITEM_SIZE);
+			spyMemcached.destroy();
+		}
+	}
+}
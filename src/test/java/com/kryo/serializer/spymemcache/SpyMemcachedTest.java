@@ -0,0 +1,232 @@
+package com.kryo.serializer.spymemcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.kryo.serializer.bean.BeanSerializable;
+
+import net.spy.memcached.ConnectionFactory;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.DefaultHashAlgorithm;
+import net.spy.memcached.protocol.binary.BinaryOperationFactory;
+
+/**
+ * No server listens on the port: failures must complete the futures, never block or throw.
+ */
+public class SpyMemcachedTest {
+
+	private final SpyMemcached spyMemcached = new SpyMemcached("localhost:1", true);
+
+	@After
+	public void tearDown() {
+		spyMemcached.destroy();
+	}
+
+	@Test
+	public void async_failures_map_to_sync_results() throws Exception {
+		CompletableFuture<Object> get = spyMemcached.getAsync("key");
+		CompletableFuture<Boolean> put = spyMemcached.putAsync("value", "key", 60);
+		CompletableFuture<Boolean> delete = spyMemcached.deleteAsync("key");
+		CompletableFuture<Map<String, Object>> bulk = spyMemcached.getBulkAsync(new String[] { "a", "b" });
+
+		assertNull(get.get(5, TimeUnit.SECONDS));
+		assertEquals(1, spyMemcached.getMisses());
+		assertEquals(1, spyMemcached.getMetrics().getHistograms().get("get.nanos").getCount());
+		assertFalse(put.get(5, TimeUnit.SECONDS));
+		assertFalse(delete.get(5, TimeUnit.SECONDS));
+		Map<String, Object> map = bulk.get(5, TimeUnit.SECONDS);
+		assertEquals(2, map.size());
+		assertTrue(map.containsKey("a") && map.get("a") == null);
+	}
+
+	@Test
+	public void async_reads_hit_the_near_cache() throws Exception {
+		NearCache near = new NearCache();
+		spyMemcached.setNearCache(near);
+		near.put("key", OptimizeTranscoderTest.getBean(3), 60);
+
+		CompletableFuture<Object> get = spyMemcached.getAsync("key");
+		assertTrue(get.isDone());
+		assertEquals("David2", ((BeanSerializable) get.get()).getMyList().get(2));
+		assertTrue(spyMemcached.getBulkAsync(new String[] { "key" }).get().get("key") instanceof BeanSerializable);
+
+		spyMemcached.deleteAsync("key");
+		assertNull(near.get("key"));
+	}
+
+	@Test
+	public void failed_put_drops_the_near_cache_entry() throws Exception {
+		NearCache near = new NearCache();
+		spyMemcached.setNearCache(near);
+
+		assertFalse(spyMemcached.putAsync("value", "key", 60).get(5, TimeUnit.SECONDS));
+		assertNull(near.get("key"));
+	}
+
+	@Test
+	public void concurrent_misses_share_one_load() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		final Callable<Object> loader = new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				calls.incrementAndGet();
+				Thread.sleep(500);
+				return "loaded";
+			}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(32);
+		List<Future<Object>> results = new ArrayList<Future<Object>>();
+		for (int i = 0; i < 32; i++) {
+			results.add(executor.submit(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					return spyMemcached.getOrLoad("hot", 60, loader);
+				}
+			}));
+		}
+		for (Future<Object> result : results) {
+			assertEquals("loaded", result.get(10, TimeUnit.SECONDS));
+		}
+		executor.shutdown();
+		assertEquals(1, calls.get());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void loader_failure_is_thrown() throws Exception {
+		spyMemcached.getOrLoad("key", 60, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				throw new IllegalStateException("backend down");
+			}
+		});
+	}
+
+	@Test
+	public void batched_gets_complete_on_failure() throws Exception {
+		spyMemcached.setGetBatching(1000, 16);
+		CompletableFuture<Object> async = spyMemcached.getAsync("a");
+		assertNull(spyMemcached.get("b"));
+		assertNull(async.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void config_reaches_the_connection_factory() {
+		ConnectionFactory factory = new SpyMemcachedConfig()
+				.setProtocol(Protocol.BINARY)
+				.setHashAlgorithm(DefaultHashAlgorithm.KETAMA_HASH)
+				.setReadBufferSize(32768)
+				.setOpTimeout(300)
+				.newConnectionFactory(new OptimizeTranscoder());
+		assertTrue(factory.getOperationFactory() instanceof BinaryOperationFactory);
+		assertEquals(DefaultHashAlgorithm.KETAMA_HASH, factory.getHashAlg());
+		assertEquals(32768, factory.getReadBufSize());
+		assertEquals(300, factory.getOperationTimeout());
+	}
+
+	@Test
+	public void keys_are_striped_across_clients() throws Exception {
+		SpyMemcached striped = new SpyMemcached("localhost:1", true, new SpyMemcachedConfig().setClientCount(4));
+		try {
+			Set<Integer> used = new HashSet<Integer>();
+			for (int i = 0; i < 100; i++) {
+				int stripe = striped.stripe("key" + i);
+				assertEquals(stripe, striped.stripe("key" + i));
+				used.add(stripe);
+			}
+			assertEquals(4, used.size());
+
+			assertFalse(striped.putAsync("value", "key", 60).get(5, TimeUnit.SECONDS));
+			Map<String, Object> map = striped.getBulkAsync(new String[] { "key1", "key2", "key3", "key4" }).get(5, TimeUnit.SECONDS);
+			assertEquals(4, map.size());
+		} finally {
+			striped.destroy();
+		}
+	}
+
+	@Test
+	public void lazy_bulk_gets_decode_on_access() throws Exception {
+		NearCache near = new NearCache(1024 * 1024, 60, true);
+		spyMemcached.setNearCache(near);
+		near.put("a", new OptimizeTranscoder().encode("value"), 60);
+
+		Map<String, LazyValue> map = spyMemcached.getLazy(new String[] { "a", "b" });
+		assertEquals(2, map.size());
+		assertNull(map.get("b"));
+		LazyValue a = map.get("a");
+		assertFalse(a.isDecoded());
+		assertEquals("value", a.get());
+		assertTrue(a.isDecoded());
+	}
+
+	@Test
+	public void get_fields_projects_near_cached_bytes() throws Exception {
+		NearCache near = new NearCache(1024 * 1024, 60, true);
+		spyMemcached.setNearCache(near);
+		OptimizeTranscoder transcoder = new OptimizeTranscoder();
+		transcoder.setKryoEnabled(true);
+		near.put("bean", transcoder.encode(OptimizeTranscoderTest.getBean(100)), 60);
+
+		Map<String, Object> values = spyMemcached.getFields("bean", BeanSerializable.class, "myInteger", "myChar");
+		assertEquals(2, values.size());
+		assertEquals(42, values.get("myInteger"));
+		assertEquals('C', values.get("myChar"));
+	}
+
+	@Test
+	public void large_values_are_decoded_in_parallel() throws Exception {
+		final AtomicInteger tasks = new AtomicInteger();
+		final ExecutorService pool = Executors.newFixedThreadPool(4);
+		SpyMemcached parallel = new SpyMemcached("localhost:1", true, new SpyMemcachedConfig().setDecodeExecutor(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				tasks.incrementAndGet();
+				pool.execute(command);
+			}
+		}));
+		try {
+			OptimizeTranscoder transcoder = new OptimizeTranscoder();
+			Map<String, Object> found = new ConcurrentHashMap<String, Object>();
+			Random random = new Random(1);
+			for (int i = 0; i < 3; i++) {
+				byte[] large = new byte[SpyMemcachedConfig.DEFAULT_PARALLEL_DECODE_SIZE];
+				random.nextBytes(large);
+				found.put("large" + i, transcoder.encode(large));
+			}
+			for (int i = 0; i < 70; i++) {
+				found.put("small" + i, transcoder.encode("value" + i));
+			}
+
+			Map<String, Object> decoded = parallel.decodeAll(found, parallel.getConfig().getDecodeExecutor()).get(5, TimeUnit.SECONDS);
+			assertEquals(73, decoded.size());
+			assertEquals("value42", decoded.get("small42"));
+			assertEquals(SpyMemcachedConfig.DEFAULT_PARALLEL_DECODE_SIZE, ((byte[]) decoded.get("large1")).length);
+			// one task per large value, small ones by batches of 32
+			assertEquals(6, tasks.get());
+			assertEquals(6, parallel.getMetrics().getHistograms().get("decode.queue.nanos").getCount());
+		} finally {
+			parallel.destroy();
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package com.kryo.serializer.spymemcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Date;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.kryo.serializer.bean.BeanSerializable;
+import com.kryo.serializer.kryo.KryoFactory;
+
+import net.spy.memcached.CachedData;
+
+/**
+ * Bytes allocated per encode+decode round trip of OptimizeTranscoder, bounded in absolute terms.
+ * The stream based path is a copy of the code the reusable buffers replaced, kept here for
+ * reference : comparing with it only shows the two paths differ.
+ */
+public class TranscoderAllocationTest {
+
+	private static final int WARMUP_ROUNDS = 20000;
+	private static final int ROUNDS = 100000;
+	/** the decoded bean graph, the CachedData and its bytes : about 350 B/op measured */
+	private static final long MAX_BYTES_PER_OPERATION = 1024;
+
+	private final static BeanSerializable bs = getBean();
+
+	@Test
+	public void allocation_per_operation() throws Exception {
+		Assume.assumeTrue(threadMXBean() != null && threadMXBean().isThreadAllocatedMemorySupported());
+		threadMXBean().setThreadAllocatedMemoryEnabled(true);
+
+		final Kryo instance = KryoFactory.getInstance();
+		Operation streams = new Operation() {
+			@Override
+			public Object run() throws Exception {
+				ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				Output output = new Output(bos);
+				instance.writeClassAndObject(output, bs);
+				output.flush();
+				byte[] b = bos.toByteArray();
+				output.close();
+
+				Input input = new Input(new ByteArrayInputStream(b));
+				Object rv = instance.readClassAndObject(input);
+				input.close();
+				return rv;
+			}
+		};
+
+		final OptimizeTranscoder transcoder = new OptimizeTranscoder();
+		transcoder.setKryoEnabled(true);
+		Operation reusable = new Operation() {
+			@Override
+			public Object run() throws Exception {
+				CachedData d = transcoder.encode(bs);
+				return transcoder.decode(d);
+			}
+		};
+
+		long before = bytesPerOperation(streams);
+		long after = bytesPerOperation(reusable);
+		String message = String.format("streams %d B/op, reusable buffers %d B/op", before, after);
+		assertTrue(message, after <= MAX_BYTES_PER_OPERATION);
+		assertTrue(message, after < before);
+	}
+
+	private long bytesPerOperation(Operation operation) throws Exception {
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			assertEquals('C', ((BeanSerializable) operation.run()).getMyChar());
+		}
+		long threadId = Thread.currentThread().getId();
+		long start = threadMXBean().getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < ROUNDS; i++) {
+			operation.run();
+		}
+		return (threadMXBean().getThreadAllocatedBytes(threadId) - start) / ROUNDS;
+	}
+
+	private static com.sun.management.ThreadMXBean threadMXBean() {
+		if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+			return (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		}
+		return null;
+	}
+
+	private interface Operation {
+		Object run() throws Exception;
+	}
+
+	private static BeanSerializable getBean() {
+		BeanSerializable bs = new BeanSerializable();
+		bs.setMyInteger(42);
+		bs.setMyBoolean(true);
+		bs.setMyByte(Byte.parseByte("1"));
+		bs.setMyChar('C');
+		bs.setMyDate(new Date(1392116197393L));
+		bs.setMyDouble(123);
+		bs.setMyFloat(2);
+		ArrayList<String> arrayList = new ArrayList<>();
+		arrayList.add("David");
+		bs.setMyList(arrayList);
+		return bs;
+	}
+}